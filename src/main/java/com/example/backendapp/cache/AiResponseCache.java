@@ -1,30 +1,151 @@
 package com.example.backendapp.cache;
 
-import com.github.benmanes.caffeine.cache.*;
+import com.example.backendapp.config.AiCacheConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Gemini responses, held in a small in-heap Caffeine cache (L1) in front of a
+ * {@link DiskResponseStore} (L2) that survives restarts. L2 hits are promoted to L1,
+ * and writes go to both. If the disk store is disabled or cannot be opened, only L1
+ * is used.
+ * <p>
+ * L2 writes, and the compaction they trigger, run on a single writer thread, so callers
+ * never do disk I/O inline; responses are often cached from the event-loop thread their
+ * answer streamed in on. A response is in L1 before its write is queued.
+ */
 @Component
 public class AiResponseCache {
 
+    private static final Logger log = LoggerFactory.getLogger(AiResponseCache.class);
+    private static final String CACHE_NAME = "ai-responses";
+    private static final CacheRegistry.Defaults DEFAULTS =
+            CacheRegistry.Defaults.idleFor(DataSize.ofMegabytes(50), Duration.ofMinutes(5));
+
     private final Cache<String, String> cache;
+    private final DiskResponseStore diskStore;
+    private final ExecutorService diskWriter;
+
+    private final Counter l1Hits;
+    private final Counter l2Hits;
+    private final Counter misses;
+
+    @Autowired
+    public AiResponseCache(AiCacheConfig config, MeterRegistry meterRegistry, CacheRegistry cacheRegistry) {
+        this.cache = cacheRegistry.heapCache(CACHE_NAME, DEFAULTS, (String key, String value) -> value.getBytes().length);
+        this.diskStore = openDiskStore(config);
+        this.diskWriter = diskStore != null
+                ? Executors.newSingleThreadExecutor(Thread.ofPlatform().name("ai-cache-writer").daemon().factory())
+                : null;
+
+        this.l1Hits = lookups(meterRegistry, "l1_hit");
+        this.l2Hits = lookups(meterRegistry, "l2_hit");
+        this.misses = lookups(meterRegistry, "miss");
 
-    public AiResponseCache() {
-        this.cache = Caffeine.newBuilder()
-                .expireAfterAccess(5, TimeUnit.MINUTES)
-                .maximumWeight(50 * 1024 * 1024)
-                .weigher((String key, String value) -> value.getBytes().length)
-                .removalListener((String key, String value, RemovalCause cause) ->
-                        System.out.println("🗑️ Removed from AiResponseCache: " + key + " due to " + cause))
-                .build();
+        Gauge.builder("ai.cache.hit_ratio", this, c -> ratio(c.l1Hits.count(), c.l2Hits.count() + c.misses.count()))
+                .tag("tier", "l1")
+                .description("Share of AI cache lookups answered from memory")
+                .register(meterRegistry);
+        Gauge.builder("ai.cache.hit_ratio", this, c -> ratio(c.l2Hits.count(), c.misses.count()))
+                .tag("tier", "l2")
+                .description("Share of AI cache lookups missing memory that were answered from disk")
+                .register(meterRegistry);
+        if (diskStore != null) {
+            Gauge.builder("ai.cache.l2.entries", diskStore, DiskResponseStore::size)
+                    .register(meterRegistry);
+            Gauge.builder("ai.cache.l2.size", diskStore, DiskResponseStore::diskBytes)
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
     }
 
     public String getCachedResponse(String key) {
-        return cache.getIfPresent(key);
+        String response = cache.getIfPresent(key);
+        if (response != null) {
+            l1Hits.increment();
+            return response;
+        }
+
+        response = diskStore != null ? diskStore.get(key) : null;
+        if (response != null) {
+            l2Hits.increment();
+            cache.put(key, response);
+        } else {
+            misses.increment();
+        }
+        return response;
     }
 
     public void cacheResponse(String key, String response) {
         cache.put(key, response);
+        if (diskStore != null) {
+            try {
+                diskWriter.execute(() -> write(key, response));
+            } catch (RejectedExecutionException e) {
+                log.debug("AI disk cache closed, not storing {}", key);
+            }
+        }
+    }
+
+    // Finishes the queued writes before the store is closed.
+    @PreDestroy
+    public void close() throws IOException {
+        if (diskStore != null) {
+            diskWriter.shutdown();
+            try {
+                // Not interrupted: an interrupt during a write would close the segment file under it.
+                if (!diskWriter.awaitTermination(30, TimeUnit.SECONDS)) {
+                    log.warn("AI disk cache writes still pending at shutdown, dropping them");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            diskStore.close();
+        }
+    }
+
+    private void write(String key, String response) {
+        diskStore.put(key, response);
+        if (diskStore.needsCompaction()) {
+            diskStore.compact();
+        }
+    }
+
+    private static DiskResponseStore openDiskStore(AiCacheConfig config) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        try {
+            return DiskResponseStore.open(config.getDir(), config.getMaxSize().toBytes(), config.getSegmentSize().toBytes());
+        } catch (IOException | RuntimeException e) {
+            log.warn("AI disk cache unavailable at {}, using memory only: {}", config.getDir(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static Counter lookups(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("ai.cache.lookups")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static double ratio(double hits, double others) {
+        double total = hits + others;
+        return total == 0 ? 0 : hits / total;
     }
 }
@@ -0,0 +1,78 @@
+package com.example.backendapp.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code /actuator/cacheentries}: for each monitored cache, its statistics and the
+ * largest and the longest idle entries, for sizing the caches. Listing walks every key
+ * of every cache, so it is meant for occasional use by an operator.
+ */
+@Component
+@Endpoint(id = "cacheentries")
+public class CacheEntriesEndpoint {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    public record EntryInfo(String key, long weight, long idleSeconds) {}
+
+    public record CacheReport(long entries, long weightedSize, long maximumWeight, double hitRate,
+                              long evictions, List<EntryInfo> largest, List<EntryInfo> idlest) {}
+
+    private final CacheMonitor cacheMonitor;
+
+    @Autowired
+    public CacheEntriesEndpoint(CacheMonitor cacheMonitor) {
+        this.cacheMonitor = cacheMonitor;
+    }
+
+    @ReadOperation
+    public Map<String, CacheReport> entries(@Nullable Integer limit) {
+        int top = limit != null && limit > 0 ? limit : DEFAULT_LIMIT;
+        Map<String, CacheReport> reports = new LinkedHashMap<>();
+        cacheMonitor.getCaches().forEach((name, cache) -> reports.put(name, report(cache, top)));
+        return reports;
+    }
+
+    private static CacheReport report(Cache<String, ?> cache, int top) {
+        Policy.Eviction<String, ?> eviction = cache.policy().eviction().orElse(null);
+        Policy.FixedExpiration<String, ?> idle = cache.policy().expireAfterAccess().orElse(null);
+
+        List<EntryInfo> entries = new ArrayList<>();
+        for (String key : cache.asMap().keySet()) {
+            long weight = eviction != null ? eviction.weightOf(key).orElse(0) : 0;
+            long idleSeconds = idle != null ? idle.ageOf(key, TimeUnit.SECONDS).orElse(0) : 0;
+            entries.add(new EntryInfo(key, weight, idleSeconds));
+        }
+
+        CacheStats stats = cache.stats();
+        return new CacheReport(
+                entries.size(),
+                eviction != null ? eviction.weightedSize().orElse(0) : 0,
+                eviction != null ? eviction.getMaximum() : 0,
+                stats.hitRate(),
+                stats.evictionCount(),
+                top(entries, Comparator.comparingLong(EntryInfo::weight), top),
+                top(entries, Comparator.comparingLong(EntryInfo::idleSeconds), top));
+    }
+
+    private static List<EntryInfo> top(List<EntryInfo> entries, Comparator<EntryInfo> order, int limit) {
+        return entries.stream()
+                .sorted(order.reversed())
+                .limit(limit)
+                .toList();
+    }
+}
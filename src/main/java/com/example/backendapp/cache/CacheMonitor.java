@@ -0,0 +1,102 @@
+package com.example.backendapp.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.RemovalListener;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Binds the application's Caffeine caches to Micrometer and keeps them by name for
+ * {@link CacheEntriesEndpoint}. Caches must be built with {@code recordStats()}; each
+ * one then reports {@code cache.gets} (hit and miss), {@code cache.puts},
+ * {@code cache.evictions}, {@code cache.eviction.weight}, {@code cache.size} and
+ * {@code cache.weighted.size}, tagged with {@code cache}.
+ * <p>
+ * Removals are counted by cause and logged at most once per {@link #LOG_INTERVAL} per
+ * cache, as one line with the counts since the previous line, instead of once per entry.
+ */
+@Component
+public class CacheMonitor {
+
+    static final Duration LOG_INTERVAL = Duration.ofMinutes(1);
+
+    private static final Logger log = LoggerFactory.getLogger(CacheMonitor.class);
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Cache<String, ?>> caches = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CacheMonitor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void monitor(String name, Cache<String, ?> cache) {
+        caches.put(name, cache);
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        cache.policy().eviction().ifPresent(eviction ->
+                Gauge.builder("cache.weighted.size", eviction, e -> e.weightedSize().orElse(0))
+                        .tag("cache", name)
+                        .description("Total weight of the entries in the cache")
+                        .baseUnit("bytes")
+                        .register(meterRegistry));
+    }
+
+    Map<String, Cache<String, ?>> getCaches() {
+        return caches;
+    }
+
+    /**
+     * A removal listener for the cache called {@code name} that only counts removals and
+     * logs them in batches.
+     */
+    public static <V> SampledRemovalLog<V> removalLog(String name) {
+        return new SampledRemovalLog<>(name);
+    }
+
+    public static final class SampledRemovalLog<V> implements RemovalListener<String, V> {
+
+        private final String name;
+        private final Map<RemovalCause, LongAdder> counts = new EnumMap<>(RemovalCause.class);
+        private final AtomicLong nextLogAt = new AtomicLong(System.nanoTime());
+
+        private SampledRemovalLog(String name) {
+            this.name = name;
+            for (RemovalCause cause : RemovalCause.values()) {
+                counts.put(cause, new LongAdder());
+            }
+        }
+
+        @Override
+        public void onRemoval(String key, V value, RemovalCause cause) {
+            counts.get(cause).increment();
+            if (!cause.wasEvicted() || !log.isInfoEnabled()) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            long logAt = nextLogAt.get();
+            if (now - logAt >= 0 && nextLogAt.compareAndSet(logAt, now + LOG_INTERVAL.toNanos())) {
+                log.info("cache={} removals size={} expired={} collected={} explicit={} replaced={} sampleKey={}",
+                        name, drain(RemovalCause.SIZE), drain(RemovalCause.EXPIRED), drain(RemovalCause.COLLECTED),
+                        drain(RemovalCause.EXPLICIT), drain(RemovalCause.REPLACED), key);
+            }
+        }
+
+        private long drain(RemovalCause cause) {
+            return counts.get(cause).sumThenReset();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.backendapp.cache;
+
+import com.example.backendapp.config.CacheConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.RemovalListener;
+import com.github.benmanes.caffeine.cache.Weigher;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Builds the application's Caffeine caches from {@link CacheConfig}, so sizes and expiry
+ * are settings rather than code. Each cache brings its weigher and its defaults; entries
+ * of {@code cache.specs.<name>} override them.
+ * <p>
+ * In-heap caches share {@code cache.global-max-size}. Every
+ * {@code cache.rebalance-interval} the budget is divided again: each cache keeps its
+ * {@code min-size}, and the rest goes first to the caches whose bytes earned the most
+ * hits since the last round, up to what they need to grow, then to the same caches up to
+ * their {@code max-size}. Caches backed by their own storage, such as the block pool of
+ * {@link JsonToExcelCache}, are sized by that storage and take no part.
+ */
+@Component
+public class CacheRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheRegistry.class);
+
+    /**
+     * Settings of one cache, used where {@code cache.specs.<name>} leaves them out. Zero
+     * durations disable that kind of expiry.
+     */
+    public record Defaults(DataSize maxSize, DataSize minSize, Duration expireAfterAccess, Duration expireAfterWrite) {
+
+        public static Defaults idleFor(DataSize maxSize, Duration expireAfterAccess) {
+            return new Defaults(maxSize, DataSize.ofBytes(maxSize.toBytes() / 10), expireAfterAccess, Duration.ZERO);
+        }
+    }
+
+    /**
+     * What one in-heap cache holds and earned in the last round, for {@link #divide}.
+     */
+    record Demand(long minSize, long maxSize, long currentMax, long used, long hits) {
+
+        double hitsPerByte() {
+            return (double) hits / Math.max(1, used);
+        }
+
+        // A cache that is nearly full would use more; one that is not only needs some headroom.
+        long wanted() {
+            long wanted = used >= currentMax - currentMax / 10 ? maxSize : used + used / 4;
+            return Math.max(minSize, Math.min(maxSize, wanted));
+        }
+    }
+
+    private static final class HeapCache {
+        final String name;
+        final Cache<String, ?> cache;
+        final Policy.Eviction<String, ?> eviction;
+        final long minSize;
+        final long maxSize;
+        long lastHits;
+
+        HeapCache(String name, Cache<String, ?> cache, long minSize, long maxSize) {
+            this.name = name;
+            this.cache = cache;
+            this.eviction = cache.policy().eviction().orElseThrow();
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+        }
+
+        Demand demand() {
+            long hits = cache.stats().hitCount();
+            Demand demand = new Demand(minSize, maxSize, eviction.getMaximum(),
+                    eviction.weightedSize().orElse(0), hits - lastHits);
+            lastHits = hits;
+            return demand;
+        }
+    }
+
+    private final CacheConfig config;
+    private final CacheMonitor cacheMonitor;
+    private final MeterRegistry meterRegistry;
+    private final List<HeapCache> heapCaches = new ArrayList<>();
+    private final Disposable rebalancing;
+
+    @Autowired
+    public CacheRegistry(CacheConfig config, CacheMonitor cacheMonitor, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.cacheMonitor = cacheMonitor;
+        this.meterRegistry = meterRegistry;
+
+        long interval = config.getRebalanceInterval().toNanos();
+        this.rebalancing = interval > 0
+                ? Schedulers.parallel().schedulePeriodically(this::rebalance, interval, interval, TimeUnit.NANOSECONDS)
+                : Disposables.disposed();
+    }
+
+    /**
+     * A cache held in heap, weighed in bytes and sharing the global budget.
+     */
+    public <V> Cache<String, V> heapCache(String name, Defaults defaults, Weigher<String, V> weigher) {
+        CacheConfig.Spec spec = config.getSpecs().getOrDefault(name, new CacheConfig.Spec());
+        long maxSize = orDefault(spec.getMaxSize(), defaults.maxSize()).toBytes();
+        long minSize = Math.min(maxSize, orDefault(spec.getMinSize(), defaults.minSize()).toBytes());
+
+        Cache<String, V> cache = builder(spec, defaults, maxSize, weigher)
+                .removalListener(CacheMonitor.<V>removalLog(name))
+                .build();
+        register(name, cache);
+        synchronized (this) {
+            heapCaches.add(new HeapCache(name, cache, minSize, maxSize));
+        }
+        rebalance();
+        return cache;
+    }
+
+    /**
+     * A cache whose entries live in storage of {@code capacity} bytes that it manages
+     * itself. Removals run on the calling thread, so {@code onRemoval} can hand the
+     * storage back before the next write needs it.
+     */
+    public <V> Cache<String, V> pooledCache(String name, long capacity, Defaults defaults,
+                                            Weigher<String, V> weigher, RemovalListener<String, V> onRemoval) {
+        CacheConfig.Spec spec = config.getSpecs().getOrDefault(name, new CacheConfig.Spec());
+        long maxSize = spec.getMaxSize() != null ? Math.min(capacity, spec.getMaxSize().toBytes()) : capacity;
+        RemovalListener<String, V> removals = CacheMonitor.removalLog(name);
+
+        Cache<String, V> cache = builder(spec, defaults, maxSize, weigher)
+                .executor(Runnable::run)
+                .removalListener((String key, V value, RemovalCause cause) -> {
+                    removals.onRemoval(key, value, cause);
+                    onRemoval.onRemoval(key, value, cause);
+                })
+                .build();
+        register(name, cache);
+        return cache;
+    }
+
+    @PreDestroy
+    public void close() {
+        rebalancing.dispose();
+    }
+
+    synchronized void rebalance() {
+        if (heapCaches.isEmpty()) {
+            return;
+        }
+        List<Demand> demands = heapCaches.stream().map(HeapCache::demand).toList();
+        long[] sizes = divide(config.getGlobalMaxSize().toBytes(), demands);
+
+        for (int i = 0; i < sizes.length; i++) {
+            HeapCache heapCache = heapCaches.get(i);
+            if (heapCache.eviction.getMaximum() != sizes[i]) {
+                log.debug("cache={} budget={} hitsPerByte={}", heapCache.name, sizes[i], demands.get(i).hitsPerByte());
+                heapCache.eviction.setMaximum(sizes[i]);
+            }
+        }
+    }
+
+    /**
+     * Divides {@code budget} bytes between caches. Minimum sizes are always granted, even
+     * past the budget; the rest is handed out by hits per byte, first up to what each
+     * cache wants and then up to its maximum.
+     */
+    static long[] divide(long budget, List<Demand> demands) {
+        long[] sizes = new long[demands.size()];
+        long remaining = budget;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = demands.get(i).minSize();
+            remaining -= sizes[i];
+        }
+
+        List<Integer> byValue = IntStream.range(0, sizes.length).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> demands.get(i).hitsPerByte()).reversed())
+                .toList();
+        for (int i : byValue) {
+            long grant = Math.max(0, Math.min(remaining, demands.get(i).wanted() - sizes[i]));
+            sizes[i] += grant;
+            remaining -= grant;
+        }
+        for (int i : byValue) {
+            long grant = Math.max(0, Math.min(remaining, demands.get(i).maxSize() - sizes[i]));
+            sizes[i] += grant;
+            remaining -= grant;
+        }
+        return sizes;
+    }
+
+    private void register(String name, Cache<String, ?> cache) {
+        cacheMonitor.monitor(name, cache);
+        Gauge.builder("cache.max.size", cache.policy().eviction().orElseThrow(), Policy.Eviction::getMaximum)
+                .tag("cache", name)
+                .description("Weight the cache may currently hold")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private static <V> Caffeine<String, V> builder(CacheConfig.Spec spec, Defaults defaults, long maxSize,
+                                                   Weigher<String, V> weigher) {
+        Caffeine<String, V> builder = Caffeine.newBuilder()
+                .maximumWeight(maxSize)
+                .<String, V>weigher(weigher)
+                .recordStats();
+        Duration expireAfterAccess = orDefault(spec.getExpireAfterAccess(), defaults.expireAfterAccess());
+        if (expireAfterAccess.isPositive()) {
+            builder.expireAfterAccess(expireAfterAccess);
+        }
+        Duration expireAfterWrite = orDefault(spec.getExpireAfterWrite(), defaults.expireAfterWrite());
+        if (expireAfterWrite.isPositive()) {
+            builder.expireAfterWrite(expireAfterWrite);
+        }
+        return builder;
+    }
+
+    private static <T> T orDefault(T value, T defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+}
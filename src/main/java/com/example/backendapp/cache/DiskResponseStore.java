@@ -0,0 +1,413 @@
+package com.example.backendapp.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * String key/value store kept in append-only segment files, with only an index of
+ * record positions held in heap.
+ * <p>
+ * Each record is {@code magic, crc32, keyLength, valueLength, key, value}. Writes append to
+ * the newest segment, which is sealed and synced once it reaches the segment size.
+ * Overwritten entries stay on disk as garbage. Once the files outgrow {@code maxBytes},
+ * {@link #needsCompaction} turns true and the owner is expected to call {@link #compact}:
+ * the least recently read entries are dropped until live data fits in three quarters
+ * of it, and the sealed segments with the most garbage are rewritten until the files do too.
+ * Compaction moves one record at a time under the write lock, so reads only ever wait
+ * for a single record to be copied rather than for a whole segment.
+ * <p>
+ * On startup the segments are replayed in order to rebuild the index, cutting off a
+ * half-written record at the end of the last one. Checksums are verified on every
+ * read rather than during replay, so opening a large store only reads headers and keys.
+ * Entries dropped but not yet compacted away may reappear after a restart, which is
+ * harmless for a cache.
+ */
+final class DiskResponseStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskResponseStore.class);
+
+    private static final int MAGIC = 0x41494331;
+    private static final int HEADER_BYTES = 16;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long segmentBytes;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Entry> index = new HashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private Segment active;
+    private long totalBytes;
+    private long liveBytes;
+    private volatile boolean compactionNeeded;
+
+    private DiskResponseStore(Path dir, long maxBytes, long segmentBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+    }
+
+    static DiskResponseStore open(Path dir, long maxBytes, long segmentBytes) throws IOException {
+        Files.createDirectories(dir);
+        DiskResponseStore store = new DiskResponseStore(dir, maxBytes, segmentBytes);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    String get(String key) {
+        Entry corrupt;
+        lock.readLock().lock();
+        try {
+            Entry entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            ByteBuffer record = ByteBuffer.allocate(entry.recordBytes());
+            readFully(entry.segment.channel, record, entry.offset);
+            if (record.getInt(4) == checksum(record.array(), HEADER_BYTES, entry.keyLength + entry.valueLength)) {
+                entry.lastAccess = clock.incrementAndGet();
+                return new String(record.array(), HEADER_BYTES + entry.keyLength, entry.valueLength, StandardCharsets.UTF_8);
+            }
+            corrupt = entry;
+        } catch (IOException e) {
+            log.warn("Failed to read AI cache record: {}", e.getMessage());
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        log.warn("Dropping corrupt AI cache record in {}", corrupt.segment.path.getFileName());
+        lock.writeLock().lock();
+        try {
+            if (index.remove(key, corrupt)) {
+                discard(corrupt);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return null;
+    }
+
+    void put(String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + keyBytes.length + valueBytes.length);
+        record.putInt(MAGIC).putInt(0).putInt(keyBytes.length).putInt(valueBytes.length).put(keyBytes).put(valueBytes);
+        record.putInt(4, checksum(record.array(), HEADER_BYTES, keyBytes.length + valueBytes.length));
+
+        lock.writeLock().lock();
+        try {
+            append(key, record, keyBytes.length, valueBytes.length, clock.incrementAndGet());
+            if (totalBytes > maxBytes) {
+                compactionNeeded = true;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to write AI cache record: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    boolean needsCompaction() {
+        return compactionNeeded;
+    }
+
+    /**
+     * Brings the files back under {@code maxBytes}. Must not run concurrently with itself.
+     */
+    void compact() {
+        compactionNeeded = false;
+        long target = maxBytes / 4 * 3;
+        try {
+            lock.writeLock().lock();
+            try {
+                evict(target);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            Segment victim;
+            while ((victim = nextVictim(target)) != null) {
+                compact(victim);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to compact AI cache: {}", e.getMessage());
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long diskBytes() {
+        lock.readLock().lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (active != null) {
+                active.channel.force(false);
+            }
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+            segments.clear();
+            index.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void load() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, file, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.put(id, segment);
+            replay(segment);
+        }
+
+        active = segments.isEmpty() ? newSegment(0) : segments.lastEntry().getValue();
+        log.info("Opened AI disk cache at {}: {} entries, {} bytes", dir, index.size(), totalBytes);
+    }
+
+    private void replay(Segment segment) throws IOException {
+        long fileSize = segment.channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        long position = 0;
+
+        while (position + HEADER_BYTES <= fileSize) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            int keyLength = header.getInt(8);
+            int valueLength = header.getInt(12);
+            long end = position + HEADER_BYTES + (long) keyLength + valueLength;
+            if (header.getInt(0) != MAGIC || keyLength < 0 || valueLength < 0 || end > fileSize) {
+                break;
+            }
+
+            ByteBuffer key = ByteBuffer.allocate(keyLength);
+            readFully(segment.channel, key, position + HEADER_BYTES);
+            Entry entry = new Entry(segment, position, keyLength, valueLength, clock.incrementAndGet());
+            Entry previous = index.put(new String(key.array(), StandardCharsets.UTF_8), entry);
+            if (previous != null) {
+                discard(previous);
+            }
+            segment.liveBytes += entry.recordBytes();
+            liveBytes += entry.recordBytes();
+            position = end;
+        }
+
+        if (position < fileSize) {
+            log.warn("Truncating {} at byte {} of {}: incomplete record", segment.path.getFileName(), position, fileSize);
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+        totalBytes += position;
+    }
+
+    private void append(String key, ByteBuffer record, int keyLength, int valueLength, long lastAccess) throws IOException {
+        if (active.size > 0 && active.size + record.capacity() > segmentBytes) {
+            active.channel.force(false);
+            active = newSegment(active.id + 1);
+        }
+
+        record.rewind();
+        long offset = active.size;
+        while (record.hasRemaining()) {
+            active.channel.write(record, offset + record.position());
+        }
+
+        Entry entry = new Entry(active, offset, keyLength, valueLength, lastAccess);
+        Entry previous = index.put(key, entry);
+        if (previous != null) {
+            discard(previous);
+        }
+        active.size += entry.recordBytes();
+        active.liveBytes += entry.recordBytes();
+        totalBytes += entry.recordBytes();
+        liveBytes += entry.recordBytes();
+    }
+
+    // Drops the least recently read entries until live data fits in the target; index only, no I/O.
+    private void evict(long target) {
+        if (liveBytes <= target) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> byAge = new ArrayList<>(index.entrySet());
+        byAge.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (Map.Entry<String, Entry> e : byAge) {
+            if (liveBytes <= target) {
+                break;
+            }
+            index.remove(e.getKey());
+            discard(e.getValue());
+        }
+    }
+
+    // The sealed segment with the most garbage, or null once the files fit or nothing can be reclaimed.
+    private Segment nextVictim(long target) {
+        lock.readLock().lock();
+        try {
+            if (totalBytes <= target) {
+                return null;
+            }
+            Segment victim = null;
+            for (Segment segment : segments.values()) {
+                if (segment != active && (victim == null || segment.liveRatio() < victim.liveRatio())) {
+                    victim = segment;
+                }
+            }
+            return victim == null || victim.liveBytes == victim.size ? null : victim;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        List<Map.Entry<String, Entry>> live;
+        lock.readLock().lock();
+        try {
+            live = index.entrySet().stream()
+                    .filter(e -> e.getValue().segment == segment)
+                    .map(e -> Map.entry(e.getKey(), e.getValue()))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (Map.Entry<String, Entry> e : live) {
+            lock.writeLock().lock();
+            try {
+                Entry entry = e.getValue();
+                // Skip entries overwritten, evicted or dropped as corrupt since the snapshot.
+                if (index.get(e.getKey()) == entry) {
+                    ByteBuffer record = ByteBuffer.allocate(entry.recordBytes());
+                    readFully(segment.channel, record, entry.offset);
+                    append(e.getKey(), record, entry.keyLength, entry.valueLength, entry.lastAccess);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            segments.remove(segment.id);
+            totalBytes -= segment.size;
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void discard(Entry entry) {
+        entry.segment.liveBytes -= entry.recordBytes();
+        liveBytes -= entry.recordBytes();
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        Path path = dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, path, FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment file");
+            }
+        }
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static final class Segment {
+
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        long size;
+        long liveBytes;
+
+        Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        double liveRatio() {
+            return size == 0 ? 0 : (double) liveBytes / size;
+        }
+    }
+
+    private static final class Entry {
+
+        final Segment segment;
+        final long offset;
+        final int keyLength;
+        final int valueLength;
+        volatile long lastAccess;
+
+        Entry(Segment segment, long offset, int keyLength, int valueLength, long lastAccess) {
+            this.segment = segment;
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+            this.lastAccess = lastAccess;
+        }
+
+        int recordBytes() {
+            return HEADER_BYTES + keyLength + valueLength;
+        }
+    }
+}
@@ -1,30 +1,85 @@
 package com.example.backendapp.cache;
 
-import com.github.benmanes.caffeine.cache.*;
+import com.github.benmanes.caffeine.cache.Cache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
-import java.util.concurrent.TimeUnit;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
+/**
+ * Conversion results as minified UTF-8 JSON, deflated at the fastest level. Workbook
+ * JSON repeats the same keys on every row, so entries typically shrink several times
+ * over, and the weigher is just the compressed length. Hits are inflated on the fly,
+ * either into a parser through {@link #open} or straight into a response through
+ * {@link #writeTo}.
+ */
 @Component
 public class ExcelToJsonCache {
 
-    private final Cache<String, String> cache;
+    @FunctionalInterface
+    public interface JsonWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final String CACHE_NAME = "excel-to-json";
+    private static final CacheRegistry.Defaults DEFAULTS =
+            CacheRegistry.Defaults.idleFor(DataSize.ofMegabytes(50), Duration.ofMinutes(5));
+
+    private final Cache<String, byte[]> cache;
+
+    @Autowired
+    public ExcelToJsonCache(CacheRegistry cacheRegistry) {
+        this.cache = cacheRegistry.heapCache(CACHE_NAME, DEFAULTS, (String key, byte[] value) -> value.length);
+    }
+
+    /**
+     * Returns the cached JSON as a stream of UTF-8 bytes, or {@code null} on a miss.
+     */
+    public InputStream open(String key) {
+        byte[] compressed = cache.getIfPresent(key);
+        return compressed != null ? inflate(compressed) : null;
+    }
 
-    public ExcelToJsonCache() {
-        this.cache = Caffeine.newBuilder()
-                .expireAfterAccess(5, TimeUnit.MINUTES)
-                .maximumWeight(50 * 1024 * 1024)
-                .weigher((String key, String value) -> value.getBytes().length)
-                .removalListener((String key, String value, RemovalCause cause) ->
-                        System.out.println("🗑️ Removed from ExcelToJsonCache: " + key + " due to " + cause))
-                .build();
+    /**
+     * Writes the cached JSON to {@code out} and returns {@code true}, or returns
+     * {@code false} on a miss.
+     */
+    public boolean writeTo(String key, OutputStream out) throws IOException {
+        byte[] compressed = cache.getIfPresent(key);
+        if (compressed == null) {
+            return false;
+        }
+        try (InputStream in = inflate(compressed)) {
+            in.transferTo(out);
+        }
+        return true;
     }
 
-    public String get(String key) {
-        return cache.getIfPresent(key);
+    /**
+     * Caches whatever {@code json} writes, compressing it as it is produced.
+     */
+    public void put(String key, JsonWriter json) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE)) {
+            json.writeTo(out);
+        } finally {
+            deflater.end();
+        }
+        cache.put(key, compressed.toByteArray());
     }
 
-    public void put(String key, String json) {
-        cache.put(key, json);
+    private static InputStream inflate(byte[] compressed) {
+        return new InflaterInputStream(new ByteArrayInputStream(compressed));
     }
 }
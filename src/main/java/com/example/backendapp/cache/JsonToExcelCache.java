@@ -1,32 +1,193 @@
 package com.example.backendapp.cache;
 
-import com.github.benmanes.caffeine.cache.*;
-import jakarta.annotation.PostConstruct;
+import com.example.backendapp.config.JsonToExcelCacheConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.TimeUnit;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Generated workbooks, stored in blocks of a {@link SlabBlockPool} (off-heap by default)
+ * while Caffeine only tracks keys, recency and the block lists. Hits can be written
+ * straight from the blocks to a response with {@link #writeTo}; {@link #get} copies the
+ * workbook back into the heap for callers that need a {@code byte[]}.
+ */
 @Component
 public class JsonToExcelCache {
 
-    private Cache<String, byte[]> cache;
+    private static final int SLAB_SIZE = 16 * 1024 * 1024;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int EVICTION_BATCH = 32;
+    private static final String CACHE_NAME = "json-to-excel";
+    private static final CacheRegistry.Defaults DEFAULTS =
+            new CacheRegistry.Defaults(null, null, Duration.ofMinutes(5), Duration.ZERO);
 
-    @PostConstruct
-    public void init() {
-        this.cache = Caffeine.newBuilder()
-                .expireAfterAccess(5, TimeUnit.MINUTES)
-                .maximumWeight(50 * 1024 * 1024)
-                .weigher((String key, byte[] value) -> value.length)
-                .removalListener((String key, byte[] value, RemovalCause cause) ->
-                        System.out.println("🗑️ Removed from JsonToExcelCache: " + key + " due to " + cause))
-                .build();
+    private final SlabBlockPool pool;
+    private final Cache<String, Entry> cache;
+
+    @Autowired
+    public JsonToExcelCache(JsonToExcelCacheConfig config, CacheRegistry cacheRegistry) {
+        this.pool = new SlabBlockPool(config.getMaxSize().toBytes(), SLAB_SIZE, BLOCK_SIZE, config.isOffHeap());
+        // The pool holds the entries, so the cache is sized by it rather than by the shared heap budget.
+        this.cache = cacheRegistry.pooledCache(CACHE_NAME, pool.capacityBytes(), DEFAULTS,
+                (String key, Entry entry) -> entry.blocks.length * BLOCK_SIZE,
+                (String key, Entry entry, RemovalCause cause) -> entry.release());
     }
 
     public void put(String key, byte[] excelBytes) {
-        cache.put(key, excelBytes);
+        try {
+            put(key, Channels.newChannel(new ByteArrayInputStream(excelBytes)), excelBytes.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Caches {@code length} bytes read from {@code in} without buffering them in heap.
+     * Workbooks larger than a quarter of the cache are not cached, nor are ones that
+     * still do not fit after evicting a few of the least recently used entries.
+     */
+    public void put(String key, InputStream in, long length) throws IOException {
+        put(key, Channels.newChannel(in), length);
     }
 
     public byte[] get(String key) {
-        return cache.getIfPresent(key);
+        Entry entry = acquire(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = new byte[entry.length];
+            int offset = 0;
+            for (int block : entry.blocks) {
+                ByteBuffer buffer = pool.block(block);
+                int n = Math.min(BLOCK_SIZE, entry.length - offset);
+                buffer.get(bytes, offset, n);
+                offset += n;
+            }
+            return bytes;
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Writes the cached workbook to {@code out} block by block and returns {@code true},
+     * or returns {@code false} if there is none.
+     */
+    public boolean writeTo(String key, OutputStream out) throws IOException {
+        Entry entry = acquire(key);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            WritableByteChannel channel = Channels.newChannel(out);
+            int remaining = entry.length;
+            for (int block : entry.blocks) {
+                ByteBuffer buffer = pool.block(block).limit(Math.min(BLOCK_SIZE, remaining));
+                remaining -= buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            return true;
+        } finally {
+            entry.release();
+        }
+    }
+
+    private void put(String key, ReadableByteChannel in, long length) throws IOException {
+        long blockCount = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (blockCount * BLOCK_SIZE > pool.capacityBytes() / 4) {
+            return;
+        }
+
+        int[] blocks = allocate((int) blockCount);
+        if (blocks == null) {
+            return;
+        }
+
+        Entry entry = new Entry(blocks, (int) length);
+        try {
+            long remaining = length;
+            for (int block : blocks) {
+                ByteBuffer buffer = pool.block(block).limit((int) Math.min(BLOCK_SIZE, remaining));
+                remaining -= buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer) < 0) {
+                        throw new IOException("Stream ended before " + length + " bytes were read");
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            entry.release();
+            throw e;
+        }
+        cache.put(key, entry);
+    }
+
+    // The pool is sized to the cache's weight limit, so a full pool means evicting ahead of Caffeine.
+    private int[] allocate(int blockCount) {
+        int[] blocks = pool.allocate(blockCount);
+        if (blocks != null) {
+            return blocks;
+        }
+        for (String coldest : cache.policy().eviction().orElseThrow().coldest(EVICTION_BATCH).keySet()) {
+            cache.invalidate(coldest);
+            blocks = pool.allocate(blockCount);
+            if (blocks != null) {
+                return blocks;
+            }
+        }
+        return null;
+    }
+
+    private Entry acquire(String key) {
+        Entry entry = cache.getIfPresent(key);
+        return entry != null && entry.retain() ? entry : null;
+    }
+
+    /**
+     * Blocks go back to the pool once the entry has been evicted and no reader holds it.
+     */
+    private final class Entry {
+
+        private final int[] blocks;
+        private final int length;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Entry(int[] blocks, int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+
+        boolean retain() {
+            int current;
+            do {
+                current = refs.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!refs.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                pool.free(blocks);
+            }
+        }
     }
 }
@@ -0,0 +1,65 @@
+package com.example.backendapp.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent requests for the same cache key share one piece of work. The first
+ * caller starts it and later callers subscribe to the same result until it finishes, so
+ * identical uploads arriving together are parsed and sent to Gemini only once.
+ * <p>
+ * The shared work is only cancelled once every caller waiting on it has gone away.
+ * Entries are removed as soon as the work terminates or is cancelled, so errors are never
+ * shared with later requests, and a request arriving after that finds the result in the
+ * cache instead.
+ */
+@Component
+public class RequestCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestCoalescer.class);
+
+    private final ConcurrentMap<String, Mono<?>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    @Autowired
+    public RequestCoalescer(MeterRegistry meterRegistry) {
+        this.coalesced = Counter.builder("requests.coalesced")
+                .description("Requests that joined identical work already in flight")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code work} unless work for {@code key} is already in flight, in which case
+     * its result is shared. Keys must identify the kind of result, as the cache keys do.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> coalesce(String key, Supplier<Mono<T>> work) {
+        return Mono.defer(() -> {
+            // A late joiner can re-run a finished share(); only its own entry may be removed then.
+            AtomicReference<Mono<T>> self = new AtomicReference<>();
+            Mono<T> shared = Mono.defer(work)
+                    .doOnTerminate(() -> inFlight.remove(key, self.get()))
+                    .doOnCancel(() -> inFlight.remove(key, self.get()))
+                    .share();
+            self.set(shared);
+
+            Mono<?> existing = inFlight.putIfAbsent(key, shared);
+            if (existing == null) {
+                return shared;
+            }
+            log.info("Joining in-flight work for key: {}", key);
+            coalesced.increment();
+            return (Mono<T>) existing;
+        });
+    }
+}
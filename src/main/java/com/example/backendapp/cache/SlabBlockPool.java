@@ -0,0 +1,91 @@
+package com.example.backendapp.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size blocks carved out of large slabs, allocated lazily up to a capacity.
+ * With {@code direct} set the slabs live outside the Java heap, so cached data adds
+ * nothing to GC work however much of it there is. Blocks are all the same size, so freed
+ * space can always be reused and the pool never fragments.
+ */
+final class SlabBlockPool {
+
+    private final int blockSize;
+    private final int blocksPerSlab;
+    private final int maxSlabs;
+    private final boolean direct;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private int[] freeBlocks = new int[0];
+    private int freeCount;
+
+    SlabBlockPool(long capacityBytes, int slabSize, int blockSize, boolean direct) {
+        this.blockSize = blockSize;
+        this.blocksPerSlab = slabSize / blockSize;
+        this.maxSlabs = (int) Math.max(1, capacityBytes / slabSize);
+        this.direct = direct;
+    }
+
+    int blockSize() {
+        return blockSize;
+    }
+
+    long capacityBytes() {
+        return (long) maxSlabs * blocksPerSlab * blockSize;
+    }
+
+    synchronized long allocatedBytes() {
+        return (long) slabs.size() * blocksPerSlab * blockSize;
+    }
+
+    synchronized long usedBytes() {
+        return allocatedBytes() - (long) freeCount * blockSize;
+    }
+
+    /**
+     * Takes {@code count} blocks, or returns {@code null} if the pool does not have them.
+     */
+    synchronized int[] allocate(int count) {
+        while (freeCount < count && slabs.size() < maxSlabs) {
+            addSlab();
+        }
+        if (freeCount < count) {
+            return null;
+        }
+        int[] blocks = new int[count];
+        freeCount -= count;
+        System.arraycopy(freeBlocks, freeCount, blocks, 0, count);
+        return blocks;
+    }
+
+    synchronized void free(int[] blocks) {
+        System.arraycopy(blocks, 0, freeBlocks, freeCount, blocks.length);
+        freeCount += blocks.length;
+    }
+
+    /**
+     * An independent view of one block, positioned at its start.
+     */
+    ByteBuffer block(int id) {
+        ByteBuffer slab;
+        synchronized (this) {
+            slab = slabs.get(id / blocksPerSlab);
+        }
+        int offset = (id % blocksPerSlab) * blockSize;
+        return slab.duplicate().position(offset).limit(offset + blockSize).slice();
+    }
+
+    private void addSlab() {
+        int first = slabs.size() * blocksPerSlab;
+        slabs.add(direct ? ByteBuffer.allocateDirect(blocksPerSlab * blockSize) : ByteBuffer.allocate(blocksPerSlab * blockSize));
+
+        int[] grown = new int[slabs.size() * blocksPerSlab];
+        System.arraycopy(freeBlocks, 0, grown, 0, freeCount);
+        freeBlocks = grown;
+        for (int id = first; id < first + blocksPerSlab; id++) {
+            freeBlocks[freeCount++] = id;
+        }
+    }
+}
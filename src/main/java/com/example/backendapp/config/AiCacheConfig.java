@@ -0,0 +1,57 @@
+package com.example.backendapp.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+/**
+ * Settings of the on-disk second level behind {@link com.example.backendapp.cache.AiResponseCache}.
+ * Point {@code ai-cache.disk.dir} at a persistent volume; the default lives under the
+ * temp directory, which only survives restarts of the process, not of the host. A
+ * directory must not be shared by several running instances.
+ */
+@Component
+@ConfigurationProperties(prefix = "ai-cache.disk")
+public class AiCacheConfig {
+
+    private boolean enabled = true;
+    private Path dir = Path.of(System.getProperty("java.io.tmpdir"), "smart-excel-json", "ai-cache");
+    private DataSize maxSize = DataSize.ofGigabytes(2);
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public void setDir(Path dir) {
+        this.dir = dir;
+    }
+
+    /** Disk space the segment files may use before least recently used entries are dropped. */
+    public DataSize getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(DataSize maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** Size at which the segment being appended to is sealed and a new one started. */
+    public DataSize getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(DataSize segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+}
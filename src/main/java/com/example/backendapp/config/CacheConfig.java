@@ -1,33 +1,93 @@
 package com.example.backendapp.config;
 
-import com.github.benmanes.caffeine.cache.Caffeine;
-import org.springframework.cache.CacheManager;
-import org.springframework.cache.caffeine.CaffeineCache;
-import org.springframework.cache.support.SimpleCacheManager;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
-import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-@Configuration
+/**
+ * Sizes and expiry of the in-memory caches built by
+ * {@link com.example.backendapp.cache.CacheRegistry}. The in-heap caches share
+ * {@code cache.global-max-size}; each one keeps at least its {@code min-size} and never
+ * grows past its {@code max-size}. Settings left out of {@code cache.specs.<name>} fall
+ * back to the defaults of that cache.
+ */
+@Component
+@ConfigurationProperties(prefix = "cache")
 public class CacheConfig {
 
-    @Bean
-    public CacheManager cacheManager() {
-        Caffeine<Object, Object> caffeine = Caffeine.newBuilder()
-                .expireAfterWrite(10, TimeUnit.MINUTES)  // Cache expires after 10 minutes if not accessed
-                .expireAfterAccess(20, TimeUnit.MINUTES) // Cache expires after 20 minutes of inactivity
-                .maximumSize(500)
-                .removalListener((key, value, cause) ->
-                        System.out.println("❌ Cache entry removed: " + key + " | Reason: " + cause)
-                );
-
-        SimpleCacheManager cacheManager = new SimpleCacheManager();
-        cacheManager.setCaches(List.of(
-                new CaffeineCache("excelToJsonCache", caffeine.build())
-        ));
-
-        return cacheManager;
+    private DataSize globalMaxSize = DataSize.ofMegabytes(100);
+    private Duration rebalanceInterval = Duration.ofMinutes(1);
+    private Map<String, Spec> specs = new LinkedHashMap<>();
+
+    /** Heap shared by the in-heap caches. */
+    public DataSize getGlobalMaxSize() {
+        return globalMaxSize;
+    }
+
+    public void setGlobalMaxSize(DataSize globalMaxSize) {
+        this.globalMaxSize = globalMaxSize;
+    }
+
+    /** How often the shared heap is divided again between the in-heap caches. */
+    public Duration getRebalanceInterval() {
+        return rebalanceInterval;
+    }
+
+    public void setRebalanceInterval(Duration rebalanceInterval) {
+        this.rebalanceInterval = rebalanceInterval;
+    }
+
+    public Map<String, Spec> getSpecs() {
+        return specs;
+    }
+
+    public void setSpecs(Map<String, Spec> specs) {
+        this.specs = specs;
+    }
+
+    public static class Spec {
+
+        private DataSize maxSize;
+        private DataSize minSize;
+        private Duration expireAfterAccess;
+        private Duration expireAfterWrite;
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public DataSize getMinSize() {
+            return minSize;
+        }
+
+        public void setMinSize(DataSize minSize) {
+            this.minSize = minSize;
+        }
+
+        /** Time an entry may go unused before it expires; zero disables it. */
+        public Duration getExpireAfterAccess() {
+            return expireAfterAccess;
+        }
+
+        public void setExpireAfterAccess(Duration expireAfterAccess) {
+            this.expireAfterAccess = expireAfterAccess;
+        }
+
+        /** Time an entry is kept after it was written, however often it is used; zero disables it. */
+        public Duration getExpireAfterWrite() {
+            return expireAfterWrite;
+        }
+
+        public void setExpireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+        }
     }
 }
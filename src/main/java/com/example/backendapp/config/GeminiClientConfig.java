@@ -0,0 +1,57 @@
+package com.example.backendapp.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * The one {@link WebClient} all Gemini calls go through, on its own connection pool
+ * sized by {@code gemini.http.*}. Pool and request metrics are published to Micrometer
+ * under {@code reactor.netty.connection.provider.*} (pool name {@code gemini}) and
+ * {@code reactor.netty.http.client.*}.
+ */
+@Configuration
+public class GeminiClientConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider geminiConnectionProvider(GeminiConfig geminiConfig) {
+        GeminiConfig.Http http = geminiConfig.getHttp();
+        return ConnectionProvider.builder("gemini")
+                .maxConnections(http.getMaxConnections())
+                .pendingAcquireMaxCount(http.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(http.getPendingAcquireTimeout())
+                .maxIdleTime(http.getMaxIdleTime())
+                .maxLifeTime(http.getMaxLifeTime())
+                .evictInBackground(http.getEvictionInterval())
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public WebClient geminiWebClient(WebClient.Builder webClientBuilder,
+                                     GeminiConfig geminiConfig,
+                                     @Qualifier("geminiConnectionProvider") ConnectionProvider connectionProvider) {
+        GeminiConfig.Http http = geminiConfig.getHttp();
+
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) http.getConnectTimeout().toMillis())
+                .compress(http.isCompression())
+                // Requests carry the model name and API key in the URI, so they share one tag.
+                .metrics(true, uri -> "gemini");
+        if (http.isHttp2() && geminiConfig.getBaseUrl().startsWith("https:")) {
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+
+        return webClientBuilder.clone()
+                .baseUrl(geminiConfig.getBaseUrl())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize((int) http.getMaxInMemorySize().toBytes()))
+                .build();
+    }
+}
@@ -2,6 +2,9 @@ package com.example.backendapp.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
 
 @Component
 @ConfigurationProperties(prefix = "gemini")
@@ -9,6 +12,13 @@ public class GeminiConfig {
 
     private String apiKey;
     private String model;
+    private int chunkConcurrency = 4;
+    private long chunkTargetTokens = 4000;
+    private int maxInFlight = 8;
+    private String baseUrl = "https://generativelanguage.googleapis.com";
+    private Duration streamIdleTimeout = Duration.ofSeconds(30);
+    private final Http http = new Http();
+    private final Scheduler scheduler = new Scheduler();
 
     public String getApiKey() {
         return apiKey;
@@ -26,7 +36,255 @@ public class GeminiConfig {
         this.model = model;
     }
 
+    /** Chunks of one request sent to Gemini at the same time. */
+    public int getChunkConcurrency() {
+        return chunkConcurrency;
+    }
+
+    public void setChunkConcurrency(int chunkConcurrency) {
+        this.chunkConcurrency = chunkConcurrency;
+    }
+
+    /**
+     * Estimated size of the sheet data sent in one Gemini call. Answers are about as
+     * large as the input, so this also has to leave room within the model's output limit.
+     */
+    public long getChunkTargetTokens() {
+        return chunkTargetTokens;
+    }
+
+    public void setChunkTargetTokens(long chunkTargetTokens) {
+        this.chunkTargetTokens = chunkTargetTokens;
+    }
+
+    /** Upper bound of the adaptive limit on Gemini calls in flight across all requests. */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /** Where Gemini is reached; point it at a local fake server to run without the real API. */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /** Longest wait for the next part of a streamed answer before the call fails. */
+    public Duration getStreamIdleTimeout() {
+        return streamIdleTimeout;
+    }
+
+    public void setStreamIdleTimeout(Duration streamIdleTimeout) {
+        this.streamIdleTimeout = streamIdleTimeout;
+    }
+
+    public Http getHttp() {
+        return http;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
     public String buildModelPath() {
         return "/v1beta/models/" + model + ":generateContent";
     }
+
+    public String buildStreamModelPath() {
+        return "/v1beta/models/" + model + ":streamGenerateContent";
+    }
+
+    /**
+     * Connection pool and transport settings of the shared Gemini {@code WebClient}.
+     */
+    public static class Http {
+
+        private int maxConnections = 16;
+        private int pendingAcquireMaxCount = 256;
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(45);
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+        private Duration maxLifeTime = Duration.ofMinutes(5);
+        private Duration evictionInterval = Duration.ofSeconds(30);
+        private Duration connectTimeout = Duration.ofSeconds(10);
+        private DataSize maxInMemorySize = DataSize.ofMegabytes(16);
+        private boolean http2 = true;
+        private boolean compression = true;
+
+        /** Connections to Gemini; calls beyond this wait for one to be released. */
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        /** Calls allowed to wait for a connection before new ones are rejected. */
+        public int getPendingAcquireMaxCount() {
+            return pendingAcquireMaxCount;
+        }
+
+        public void setPendingAcquireMaxCount(int pendingAcquireMaxCount) {
+            this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+        }
+
+        public Duration getPendingAcquireTimeout() {
+            return pendingAcquireTimeout;
+        }
+
+        public void setPendingAcquireTimeout(Duration pendingAcquireTimeout) {
+            this.pendingAcquireTimeout = pendingAcquireTimeout;
+        }
+
+        public Duration getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        public void setMaxIdleTime(Duration maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+        }
+
+        public Duration getMaxLifeTime() {
+            return maxLifeTime;
+        }
+
+        public void setMaxLifeTime(Duration maxLifeTime) {
+            this.maxLifeTime = maxLifeTime;
+        }
+
+        /** How often idle and expired connections are closed in the background. */
+        public Duration getEvictionInterval() {
+            return evictionInterval;
+        }
+
+        public void setEvictionInterval(Duration evictionInterval) {
+            this.evictionInterval = evictionInterval;
+        }
+
+        public Duration getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        /** Largest Gemini response that is buffered; bigger ones fail instead of filling the heap. */
+        public DataSize getMaxInMemorySize() {
+            return maxInMemorySize;
+        }
+
+        public void setMaxInMemorySize(DataSize maxInMemorySize) {
+            this.maxInMemorySize = maxInMemorySize;
+        }
+
+        /** Negotiate HTTP/2 over TLS, falling back to HTTP/1.1. */
+        public boolean isHttp2() {
+            return http2;
+        }
+
+        public void setHttp2(boolean http2) {
+            this.http2 = http2;
+        }
+
+        /** Ask for gzip-compressed responses. */
+        public boolean isCompression() {
+            return compression;
+        }
+
+        public void setCompression(boolean compression) {
+            this.compression = compression;
+        }
+    }
+
+    /**
+     * Budget, adaptive concurrency and retry settings of the Gemini call scheduler.
+     */
+    public static class Scheduler {
+
+        private long requestsPerMinute = 1000;
+        private long tokensPerMinute = 1_000_000;
+        private int minInFlight = 1;
+        private Duration latencyThreshold = Duration.ofSeconds(30);
+        private int maxRetries = 3;
+        private Duration initialBackoff = Duration.ofSeconds(2);
+        private Duration maxBackoff = Duration.ofSeconds(30);
+        private int interactiveMaxCalls = 4;
+
+        /** Gemini calls started per minute; keep this within the API quota. */
+        public long getRequestsPerMinute() {
+            return requestsPerMinute;
+        }
+
+        public void setRequestsPerMinute(long requestsPerMinute) {
+            this.requestsPerMinute = requestsPerMinute;
+        }
+
+        /** Estimated prompt tokens sent per minute; keep this within the API quota. */
+        public long getTokensPerMinute() {
+            return tokensPerMinute;
+        }
+
+        public void setTokensPerMinute(long tokensPerMinute) {
+            this.tokensPerMinute = tokensPerMinute;
+        }
+
+        /** Lower bound of the adaptive limit on Gemini calls in flight. */
+        public int getMinInFlight() {
+            return minInFlight;
+        }
+
+        public void setMinInFlight(int minInFlight) {
+            this.minInFlight = minInFlight;
+        }
+
+        /** Calls slower than this lower the limit on calls in flight. */
+        public Duration getLatencyThreshold() {
+            return latencyThreshold;
+        }
+
+        public void setLatencyThreshold(Duration latencyThreshold) {
+            this.latencyThreshold = latencyThreshold;
+        }
+
+        /** Retries of a call answered with 429 or 503, or timed out. */
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public Duration getInitialBackoff() {
+            return initialBackoff;
+        }
+
+        public void setInitialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+        }
+
+        public Duration getMaxBackoff() {
+            return maxBackoff;
+        }
+
+        public void setMaxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+        }
+
+        /** Requests needing at most this many Gemini calls go ahead of larger ones. */
+        public int getInteractiveMaxCalls() {
+            return interactiveMaxCalls;
+        }
+
+        public void setInteractiveMaxCalls(int interactiveMaxCalls) {
+            this.interactiveMaxCalls = interactiveMaxCalls;
+        }
+    }
 }
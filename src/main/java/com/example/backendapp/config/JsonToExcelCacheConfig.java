@@ -0,0 +1,33 @@
+package com.example.backendapp.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Storage of {@link com.example.backendapp.cache.JsonToExcelCache}. Off-heap storage is
+ * limited by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ */
+@Component
+@ConfigurationProperties(prefix = "json-to-excel.cache")
+public class JsonToExcelCacheConfig {
+
+    private boolean offHeap = true;
+    private DataSize maxSize = DataSize.ofMegabytes(256);
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public DataSize getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(DataSize maxSize) {
+        this.maxSize = maxSize;
+    }
+}
@@ -4,6 +4,7 @@ import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
 import io.github.bucket4j.Refill;
 import io.micrometer.common.lang.NonNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -18,11 +19,22 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 @Configuration
+@ConfigurationProperties(prefix = "rate-limit")
 public class RateLimitingConfig {
 
     private static final int TOO_MANY_REQUESTS = 429;
 
     private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private long requestsPerMinute = 100;
+
+    /** Requests one client address may make per minute. */
+    public long getRequestsPerMinute() {
+        return requestsPerMinute;
+    }
+
+    public void setRequestsPerMinute(long requestsPerMinute) {
+        this.requestsPerMinute = requestsPerMinute;
+    }
 
     @Bean
     public OncePerRequestFilter rateLimitingFilter() {
@@ -46,8 +58,8 @@ public class RateLimitingConfig {
 
             private Bucket newBucket(String key) {
                 Bandwidth limit = Bandwidth.classic(
-                        100,
-                        Refill.greedy(100, Duration.ofMinutes(1))
+                        requestsPerMinute,
+                        Refill.greedy(requestsPerMinute, Duration.ofMinutes(1))
                 );
                 return Bucket.builder()
                         .addLimit(limit)
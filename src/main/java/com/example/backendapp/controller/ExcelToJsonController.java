@@ -1,11 +1,14 @@
 package com.example.backendapp.controller;
 
 import com.example.backendapp.exception.InvalidInputException;
+import com.example.backendapp.model.FormulaMode;
 import com.example.backendapp.service.exceljson.ExcelToJsonService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import reactor.core.publisher.Mono;
 
 import java.util.Objects;
@@ -23,24 +26,45 @@ public class ExcelToJsonController {
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
     public Mono<Object> convertExcelToJson(@RequestParam("file") MultipartFile file,
-                                                     @RequestParam(name = "useAI", defaultValue = "false") boolean useAI) {
+                                                     @RequestParam(name = "useAI", defaultValue = "false") boolean useAI,
+                                                     @RequestParam(name = "formulaMode", defaultValue = "CACHED") FormulaMode formulaMode) {
 
+        try {
+            validateUpload(file);
+        } catch (InvalidInputException e) {
+            return Mono.error(e);
+        }
+
+        return excelToJsonService.convert(file, useAI, formulaMode);
+    }
+
+    @PostMapping(params = "stream=true", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamExcelToJson(@RequestParam("file") MultipartFile file,
+                                                                   @RequestParam(name = "useAI", defaultValue = "false") boolean useAI,
+                                                                   @RequestParam(name = "formulaMode", defaultValue = "CACHED") FormulaMode formulaMode) {
+
+        validateUpload(file);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(excelToJsonService.stream(file, useAI, formulaMode));
+    }
+
+    private static void validateUpload(MultipartFile file) {
         if (file == null || file.isEmpty()) {
-            return Mono.error(new InvalidInputException("Excel file is missing or empty."));
+            throw new InvalidInputException("Excel file is missing or empty.");
         }
 
         String originalFilename = Objects.requireNonNull(file.getOriginalFilename(), "File must have a name");
         String sanitizedFilename = sanitizeFilename(originalFilename).toLowerCase();
 
         if (!isFilenameSafe(sanitizedFilename)) {
-            return Mono.error(new InvalidInputException("Invalid or unsafe file name detected."));
+            throw new InvalidInputException("Invalid or unsafe file name detected.");
         }
 
         if (!(sanitizedFilename.endsWith(".xlsx") || sanitizedFilename.endsWith(".xls") || sanitizedFilename.endsWith(".xlsm"))) {
-            return Mono.error(new InvalidInputException("Only .xlsx, .xls, and .xlsm Excel files are supported."));
+            throw new InvalidInputException("Only .xlsx, .xls, and .xlsm Excel files are supported.");
         }
-
-        return excelToJsonService.convert(file, useAI);
     }
 
     private static String sanitizeFilename(String filename) {
@@ -0,0 +1,56 @@
+package com.example.backendapp.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes everything written to it on to a streamed response while adding up the time
+ * spent blocked in the target's writes and flushes, which is how long the client took
+ * to take the bytes. Closing records that time and the byte count as
+ * {@code response_write}, but leaves the target open.
+ */
+public final class MeteredOutputStream extends OutputStream {
+
+    private final OutputStream target;
+    private final PipelineMetrics.Recorder metrics;
+    private long nanos;
+    private long size;
+    private boolean closed;
+
+    MeteredOutputStream(OutputStream target, PipelineMetrics.Recorder metrics) {
+        this.target = target;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        target.write(b);
+        nanos += System.nanoTime() - start;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        target.write(b, off, len);
+        nanos += System.nanoTime() - start;
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        target.flush();
+        nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            metrics.recordNanos(PipelineMetrics.Stage.RESPONSE_WRITE, nanos);
+            metrics.bytes(PipelineMetrics.Stage.RESPONSE_WRITE, size);
+        }
+    }
+}
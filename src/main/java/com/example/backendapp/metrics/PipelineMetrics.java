@@ -0,0 +1,132 @@
+package com.example.backendapp.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each stage of a conversion, and the rows, cells and bytes each stage
+ * handled, tagged by endpoint and {@code useAI}:
+ * <ul>
+ *     <li>{@code conversion.stage} (timer, with a percentile histogram)</li>
+ *     <li>{@code conversion.rows}, {@code conversion.cells}, {@code conversion.bytes}
+ *     (distribution summaries per request)</li>
+ * </ul>
+ * A request gets its {@link Recorder} from {@link #forRequest} and hands it to the
+ * services doing the work. Stages may nest: {@code excel_write} includes {@code autosize},
+ * and when rows are parsed and written in one pass it includes the parsing as well.
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String EXCEL_TO_JSON = "excel-to-json";
+    public static final String JSON_TO_EXCEL = "json-to-excel";
+    public static final String JSON_TO_EXCEL_RAW = "json-to-excel/raw";
+    public static final String GENERATE_SCHEMA = "generate-schema";
+
+    /** Records nothing; for services used outside a request, such as in benchmarks. */
+    public static final Recorder UNRECORDED = new PipelineMetrics(new CompositeMeterRegistry()).forRequest("none", false);
+
+    public enum Stage {
+        UPLOAD_READ, WORKBOOK_OPEN, SHEET_PARSE, JSON_PARSE, JSON_SERIALIZE, CACHE_LOOKUP, CACHE_STORE,
+        AI_ENHANCE, EXCEL_WRITE, AUTOSIZE, RESPONSE_WRITE;
+
+        final String tag = name().toLowerCase();
+    }
+
+    private record Key(String name, Stage stage, String endpoint, boolean useAI) {}
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Key, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<Key, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PipelineMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public Recorder forRequest(String endpoint, boolean useAI) {
+        return new Recorder(endpoint, useAI);
+    }
+
+    /**
+     * The stages of one request. Stages can be timed with a sample or with an explicit
+     * start time; rows, cells and bytes are recorded once per stage and request, as
+     * totals over all sheets.
+     */
+    public final class Recorder {
+
+        private final String endpoint;
+        private final boolean useAI;
+
+        private Recorder(String endpoint, boolean useAI) {
+            this.endpoint = endpoint;
+            this.useAI = useAI;
+        }
+
+        public Timer.Sample start() {
+            return Timer.start(meterRegistry);
+        }
+
+        public void stop(Timer.Sample sample, Stage stage) {
+            sample.stop(timer(stage));
+        }
+
+        public void record(Stage stage, long startNanos) {
+            recordNanos(stage, System.nanoTime() - startNanos);
+        }
+
+        public void recordNanos(Stage stage, long nanos) {
+            timer(stage).record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Wraps a streamed response so the time spent writing it to the client is
+         * recorded once the returned stream is closed.
+         */
+        public MeteredOutputStream meter(OutputStream out) {
+            return new MeteredOutputStream(out, this);
+        }
+
+        public void rows(Stage stage, long rows) {
+            summary("conversion.rows", null, stage).record(rows);
+        }
+
+        public void cells(Stage stage, long cells) {
+            summary("conversion.cells", null, stage).record(cells);
+        }
+
+        public void bytes(Stage stage, long bytes) {
+            summary("conversion.bytes", "bytes", stage).record(bytes);
+        }
+
+        private Timer timer(Stage stage) {
+            return timers.computeIfAbsent(new Key("conversion.stage", stage, endpoint, useAI), key ->
+                    Timer.builder(key.name())
+                            .description("Time spent in one stage of a conversion")
+                            .tag("stage", stage.tag)
+                            .tag("endpoint", endpoint)
+                            .tag("useAI", String.valueOf(useAI))
+                            .publishPercentileHistogram()
+                            .register(meterRegistry));
+        }
+
+        private DistributionSummary summary(String name, String baseUnit, Stage stage) {
+            return summaries.computeIfAbsent(new Key(name, stage, endpoint, useAI), key ->
+                    DistributionSummary.builder(key.name())
+                            .baseUnit(baseUnit)
+                            .tag("stage", stage.tag)
+                            .tag("endpoint", endpoint)
+                            .tag("useAI", String.valueOf(useAI))
+                            .register(meterRegistry));
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.backendapp.model;
+
+/**
+ * How formula cells are turned into values during Excel-to-JSON conversion.
+ */
+public enum FormulaMode {
+
+    /**
+     * Use the result Excel stored in the file, which lets .xlsx files go through the
+     * streaming reader; this is the default. Formulas saved without a result,
+     * as openpyxl and SXSSF write them, are still evaluated, so they never come out empty.
+     */
+    CACHED,
+
+    /**
+     * Recalculate every formula with POI, using one evaluator for the whole workbook so
+     * intermediate results are shared between cells. Always uses the in-memory workbook,
+     * whose sheets are read one at a time because POI workbooks are not thread-safe.
+     */
+    EVALUATE
+}
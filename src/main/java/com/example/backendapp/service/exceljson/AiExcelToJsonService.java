@@ -3,174 +3,321 @@ package com.example.backendapp.service.exceljson;
 import com.example.backendapp.cache.AiResponseCache;
 import com.example.backendapp.config.GeminiConfig;
 import com.example.backendapp.exception.AIProcessingException;
-import com.example.backendapp.util.GeminiResponseUtil;
-import com.fasterxml.jackson.core.JsonGenerator;
+import com.example.backendapp.service.gemini.ChunkPlanner;
+import com.example.backendapp.service.gemini.ChunkPlanner.Chunk;
+import com.example.backendapp.service.gemini.ColumnProfiler;
+import com.example.backendapp.service.gemini.ColumnProfiler.SheetProjection;
+import com.example.backendapp.service.gemini.GeminiScheduler;
+import com.example.backendapp.service.gemini.GeminiStreamClient;
+import com.example.backendapp.util.CacheKeyUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
-import reactor.util.function.Tuple3;
-import reactor.util.function.Tuples;
 
-import java.io.StringWriter;
-import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class AiExcelToJsonService {
 
     private static final Logger log = LoggerFactory.getLogger(AiExcelToJsonService.class);
-    private static final int MAX_INPUT_LENGTH = 30000;
-    private static final int CHUNK_SIZE = 100;
+    private static final int MAX_REQUEST_LENGTH = 300_000;
+    private static final TypeReference<List<Map<String, Object>>> ROWS_TYPE = new TypeReference<>() {};
 
-    private final WebClient webClient;
+    // Part of every chunk cache key: bump it whenever PROMPT changes so old answers are not reused.
+    private static final String PROMPT_VERSION = "2";
+    private static final String PROMPT = """
+            You are an AI assistant. The input is a part of an Excel workbook in JSON format.
+            Standardize data types, clean the content, and preserve the structure.
+            Keep the "%s" field of every row exactly as it is.
+            Return the result as pure JSON.
+
+            Input:
+            """.formatted(ChunkPlanner.ROW_KEY);
+
+    /** One enhanced row and the sheet it belongs to. */
+    public record SheetRow(String sheetName, Map<String, Object> row) {}
+
+    private record ChunkRow(Chunk chunk, Map<String, Object> row) {}
+
+    /** A cleaned row and its index among the rows of its sheet that were sent. */
+    private record IndexedRow(String sheetName, int index, Map<String, Object> row) {}
+
+    private record Plan(List<SheetProjection> sheets, List<Chunk> chunks) {}
+
+    private final GeminiStreamClient geminiStreamClient;
     private final AiResponseCache aiResponseCache;
     private final GeminiConfig geminiConfig;
     private final ObjectMapper objectMapper;
+    private final GeminiScheduler geminiScheduler;
+    private final ChunkPlanner chunkPlanner;
+    private final ColumnProfiler columnProfiler;
+    private final DistributionSummary requestConcurrency;
+    private final Counter chunkCacheHits;
+    private final Counter chunkCacheMisses;
+    private final DistributionSummary chunkCacheHitRatio;
 
     @Autowired
-    public AiExcelToJsonService(WebClient.Builder webClientBuilder,
+    public AiExcelToJsonService(GeminiStreamClient geminiStreamClient,
                                 AiResponseCache aiResponseCache,
-                                GeminiConfig geminiConfig) {
-        this.webClient = webClientBuilder.baseUrl("https://generativelanguage.googleapis.com").build();
+                                GeminiConfig geminiConfig,
+                                GeminiScheduler geminiScheduler,
+                                ChunkPlanner chunkPlanner,
+                                ColumnProfiler columnProfiler,
+                                MeterRegistry meterRegistry) {
+        this.geminiStreamClient = geminiStreamClient;
         this.aiResponseCache = aiResponseCache;
         this.geminiConfig = geminiConfig;
         this.objectMapper = new ObjectMapper();
+        this.geminiScheduler = geminiScheduler;
+        this.chunkPlanner = chunkPlanner;
+        this.columnProfiler = columnProfiler;
+        this.requestConcurrency = DistributionSummary.builder("ai.excel_to_json.chunk_concurrency")
+                .description("Peak number of chunks of one request being enhanced at the same time")
+                .register(meterRegistry);
+        this.chunkCacheHits = Counter.builder("ai.excel_to_json.chunk_cache")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.chunkCacheMisses = Counter.builder("ai.excel_to_json.chunk_cache")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.chunkCacheHitRatio = DistributionSummary.builder("ai.excel_to_json.chunk_cache.hit_ratio")
+                .description("Share of one request's chunks answered from the cache")
+                .baseUnit("percent")
+                .register(meterRegistry);
     }
 
     public Mono<Object> enhance(Map<String, List<Map<String, Object>>> workbookData) {
-        return Mono.fromCallable(() -> {
-            StringWriter writer = new StringWriter();
-            try (JsonGenerator gen = objectMapper.getFactory().createGenerator(writer)) {
-                objectMapper.writeValue(gen, workbookData);
-            }
-            return writer.toString();
-        }).subscribeOn(Schedulers.boundedElastic()).flatMap(rawJson -> {
+        return enhanceRows(workbookData)
+                .collect(() -> emptyWorkbook(workbookData),
+                        (workbook, row) -> workbook.get(row.sheetName()).add(row.row()))
+                .map(workbook -> (Object) workbook);
+    }
+
+    /**
+     * Streams the enhanced rows of every sheet in order, each one as soon as Gemini has
+     * written it, so callers can start sending results before the last chunk is done.
+     * Only the cells {@link ColumnProfiler} finds dirty are sent; the rest of each row,
+     * and rows with nothing to clean, are passed through as they are.
+     */
+    public Flux<SheetRow> enhanceRows(Map<String, List<Map<String, Object>>> workbookData) {
+        return Mono.fromCallable(() -> splitIntoChunks(workbookData))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(plan -> {
+                    List<Chunk> chunks = plan.chunks();
+                    // Chunks run concurrently up to the per-request limit; flatMapSequential keeps their order.
+                    AtomicInteger activeChunks = new AtomicInteger();
+                    AtomicInteger peakChunks = new AtomicInteger();
+                    AtomicInteger cacheHits = new AtomicInteger();
+                    AtomicInteger cacheMisses = new AtomicInteger();
+                    GeminiScheduler.Priority priority = geminiScheduler.priorityFor(chunks.size());
+
+                    Flux<ChunkRow> chunkRows = Flux.fromIterable(chunks)
+                            .flatMapSequential(chunk -> enhanceChunk(chunk, priority, cacheHits, cacheMisses)
+                                            .map(row -> new ChunkRow(chunk, row))
+                                            .doOnSubscribe(s -> peakChunks.accumulateAndGet(activeChunks.incrementAndGet(), Math::max))
+                                            .doFinally(signal -> activeChunks.decrementAndGet()),
+                                    Math.max(1, geminiConfig.getChunkConcurrency()));
+
+                    return mergeIntoSheets(joinSplitRows(chunkRows), plan.sheets())
+                            .doFinally(signal -> {
+                                requestConcurrency.record(peakChunks.get());
+                                recordChunkCacheStats(cacheHits.get(), cacheMisses.get());
+                            });
+                }).onErrorResume(e -> {
+                    log.error("Chunked AI enhancement failed", e);
+                    return Mono.error(new AIProcessingException("AI enhancement failed: " + e.getMessage()));
+                });
+    }
+
+    public static Map<String, List<Map<String, Object>>> emptyWorkbook(Map<String, List<Map<String, Object>>> workbookData) {
+        Map<String, List<Map<String, Object>>> workbook = new LinkedHashMap<>();
+        for (String sheetName : workbookData.keySet()) {
+            workbook.put(sheetName, new ArrayList<>());
+        }
+        return workbook;
+    }
+
+    // Holds each row back until the next one shows whether more of its columns follow.
+    // Parts are joined by the row index they carry; rows without a valid index are dropped.
+    private static Flux<IndexedRow> joinSplitRows(Flux<ChunkRow> chunkRows) {
+        return Flux.defer(() -> {
+            AtomicReference<IndexedRow> pending = new AtomicReference<>();
+            return chunkRows
+                    .concatMapIterable(chunkRow -> {
+                        int index = ChunkPlanner.rowIndex(chunkRow.chunk(), chunkRow.row());
+                        if (index < 0) {
+                            return List.of();
+                        }
+                        Map<String, Object> row = ChunkPlanner.withoutRowKey(chunkRow.row());
+                        IndexedRow previous = pending.get();
+                        if (previous != null && previous.index() == index
+                                && previous.sheetName().equals(chunkRow.chunk().sheetName())) {
+                            Map<String, Object> joined = new LinkedHashMap<>(previous.row());
+                            joined.putAll(row);
+                            pending.set(new IndexedRow(previous.sheetName(), index, joined));
+                            return List.of();
+                        }
+                        pending.set(new IndexedRow(chunkRow.chunk().sheetName(), index, row));
+                        return previous != null ? List.of(previous) : List.of();
+                    })
+                    .concatWith(Mono.fromSupplier(pending::get));
+        });
+    }
+
+    // Emits every row of every sheet in order, taking the cleaned values of the rows that were sent.
+    private static Flux<SheetRow> mergeIntoSheets(Flux<IndexedRow> cleanedRows, List<SheetProjection> sheets) {
+        return Flux.defer(() -> {
+            SheetMerger merger = new SheetMerger(sheets);
+            return cleanedRows
+                    .concatMapIterable(merger::accept)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(merger.finish())));
+        });
+    }
+
+    private Plan splitIntoChunks(Map<String, List<Map<String, Object>>> workbookData) throws Exception {
+        List<SheetProjection> sheets = new ArrayList<>();
+        List<Chunk> chunks = new ArrayList<>();
+        long totalLength = 0;
 
-            if (rawJson.length() > MAX_INPUT_LENGTH * 10) {
-                return Mono.error(new AIProcessingException("Excel data is too large for AI chunked processing."));
+        for (Map.Entry<String, List<Map<String, Object>>> entry : workbookData.entrySet()) {
+            SheetProjection sheet = columnProfiler.project(entry.getKey(), entry.getValue());
+            sheets.add(sheet);
+            for (Chunk chunk : chunkPlanner.plan(entry.getKey(), sheet.projectedRows())) {
+                totalLength += chunk.json().length();
+                if (totalLength > MAX_REQUEST_LENGTH) {
+                    throw new AIProcessingException("Excel data is too large for AI chunked processing.");
+                }
+                chunks.add(chunk);
             }
+        }
+        return new Plan(sheets, chunks);
+    }
 
-            // Check cache
-            String cached = aiResponseCache.getCachedResponse(rawJson);
+    private Flux<Map<String, Object>> enhanceChunk(Chunk chunk, GeminiScheduler.Priority priority,
+                                                   AtomicInteger cacheHits, AtomicInteger cacheMisses) {
+        return Flux.defer(() -> {
+            String cacheKey = CacheKeyUtil.generateAiChunkKey(chunk.sheetName(), chunk.json(), PROMPT_VERSION, geminiConfig.getModel());
+            String cached = aiResponseCache.getCachedResponse(cacheKey);
             if (cached != null) {
-                return Mono.fromCallable(() -> objectMapper.readValue(cached, Object.class))
+                cacheHits.incrementAndGet();
+                return Mono.fromCallable(() -> objectMapper.readValue(cached, ROWS_TYPE))
                         .subscribeOn(Schedulers.boundedElastic())
-                        .onErrorResume(e -> {
-                            log.warn("Failed to deserialize cached response, regenerating.");
-                            return Mono.empty();
-                        });
+                        .flatMapIterable(rows -> rows);
             }
+            cacheMisses.incrementAndGet();
 
-            // Generate chunks
-            List<Mono<Tuple3<String, Integer, List<Map<String, Object>>>>> chunkMonos = new ArrayList<>();
+            String prompt = PROMPT + chunk.json();
+            List<Map<String, Object>> enhancedRows = new ArrayList<>();
 
-            workbookData.forEach((sheetName, rows) -> {
-                List<List<Map<String, Object>>> chunks = IntStream.range(0, (rows.size() + CHUNK_SIZE - 1) / CHUNK_SIZE)
-                        .mapToObj(i -> rows.subList(i * CHUNK_SIZE, Math.min(rows.size(), (i + 1) * CHUNK_SIZE)))
-                        .toList();
-
-                for (int i = 0; i < chunks.size(); i++) {
-                    chunkMonos.add(enhanceChunk(sheetName, i, chunks.get(i)));
-                }
-            });
-
-            return Flux.concat(chunkMonos)
-                    .collectList()
-                    .flatMap(results -> {
-                        Map<String, List<Map<String, Object>>> enhancedWorkbook = new LinkedHashMap<>();
-                        Map<String, List<Tuple3<String, Integer, List<Map<String, Object>>>>> grouped =
-                                results.stream().collect(Collectors.groupingBy(Tuple3::getT1));
-
-                        for (String sheetName : workbookData.keySet()) {
-                            List<Tuple3<String, Integer, List<Map<String, Object>>>> orderedChunks =
-                                    grouped.getOrDefault(sheetName, List.of()).stream()
-                                            .sorted(Comparator.comparing(Tuple3::getT2))
-                                            .toList();
-
-                            List<Map<String, Object>> orderedRows = orderedChunks.stream()
-                                    .flatMap(t -> t.getT3().stream())
-                                    .collect(Collectors.toList());
-
-                            enhancedWorkbook.put(sheetName, orderedRows);
+            // Rows are passed on as they are parsed; the chunk is cached once its answer is complete.
+            return geminiStreamClient.streamRows(buildRequestBody(prompt), chunk.sheetName(), priority, GeminiScheduler.estimateTokens(prompt))
+                    .doOnNext(enhancedRows::add)
+                    .concatWith(Mono.fromRunnable(() -> cacheRows(cacheKey, enhancedRows))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .then(Mono.empty()))
+                    .onErrorResume(error -> {
+                        if (error instanceof WebClientResponseException ex) {
+                            log.error("Gemini API error ({}): {}", ex.getStatusCode().value(), ex.getResponseBodyAsString());
+                            return Mono.error(new AIProcessingException("Gemini API failed for chunk: " + ex.getMessage()));
                         }
-
-                        return Mono.fromCallable(() -> {
-                            StringWriter resultWriter = new StringWriter();
-                            try (JsonGenerator gen = objectMapper.getFactory().createGenerator(resultWriter)) {
-                                objectMapper.writeValue(gen, enhancedWorkbook);
-                            }
-                            String finalJson = resultWriter.toString();
-                            aiResponseCache.cacheResponse(rawJson, finalJson);
-                            return enhancedWorkbook;
-                        }).subscribeOn(Schedulers.boundedElastic());
+                        return Mono.error(error);
                     });
-
         }).onErrorResume(e -> {
-            log.error("Chunked AI enhancement failed", e);
-            return Mono.error(new AIProcessingException("AI enhancement failed: " + e.getMessage()));
+            log.error("Failed to process chunk (sheet={} chunkIndex={})", chunk.sheetName(), chunk.index(), e);
+            return Mono.error(new AIProcessingException("Chunk processing error: " + e.getMessage()));
         });
     }
 
-    private Mono<Tuple3<String, Integer, List<Map<String, Object>>>> enhanceChunk(String sheetName, int chunkIndex, List<Map<String, Object>> chunk) {
-        return Mono.fromCallable(() -> objectMapper.writeValueAsString(Map.of(sheetName, chunk)))
-                .subscribeOn(Schedulers.boundedElastic())
-                .flatMap(chunkJson -> {
-                    if (chunkJson.length() > MAX_INPUT_LENGTH) {
-                        return Mono.error(new AIProcessingException("A chunk is too large for Gemini."));
-                    }
-
-                    String prompt = """
-                        You are an AI assistant. The input is a part of an Excel workbook in JSON format.
-                        Standardize data types, clean the content, and preserve the structure.
-                        Return the result as pure JSON.
-
-                        Input:
-                        """ + chunkJson;
-
-                    return webClient.post()
-                            .uri(uriBuilder -> uriBuilder
-                                    .path(geminiConfig.buildModelPath())
-                                    .queryParam("key", geminiConfig.getApiKey())
-                                    .build())
-                            .contentType(MediaType.APPLICATION_JSON)
-                            .bodyValue(buildRequestBody(prompt))
-                            .retrieve()
-                            .bodyToMono(String.class)
-                            .timeout(Duration.ofSeconds(90))
-                            .map(GeminiResponseUtil::extractTextFromGeminiResponse)
-                            .flatMap(text -> {
-                                if (text == null || text.isBlank()) {
-                                    return Mono.error(new AIProcessingException("Gemini returned empty response."));
-                                }
-                                return Mono.fromCallable(() -> {
-                                    Map<String, List<Map<String, Object>>> parsed =
-                                            objectMapper.readValue(text, new TypeReference<>() {});
-                                    List<Map<String, Object>> enhancedRows = parsed.getOrDefault(sheetName, Collections.emptyList());
-                                    return Tuples.of(sheetName, chunkIndex, enhancedRows);
-                                }).subscribeOn(Schedulers.boundedElastic());
-                            })
-                            .onErrorResume(error -> {
-                                if (error instanceof WebClientResponseException ex) {
-                                    log.error("Gemini API error ({}): {}", ex.getStatusCode().value(), ex.getResponseBodyAsString());
-                                    return Mono.error(new AIProcessingException("Gemini API failed for chunk: " + ex.getMessage()));
-                                }
-                                return Mono.error(error);
-                            });
-                }).onErrorResume(e -> {
-                    log.error("Failed to process chunk (sheet={} chunkIndex={})", sheetName, chunkIndex, e);
-                    return Mono.error(new AIProcessingException("Chunk processing error: " + e.getMessage()));
-                });
+    private void cacheRows(String cacheKey, List<Map<String, Object>> rows) {
+        try {
+            aiResponseCache.cacheResponse(cacheKey, objectMapper.writeValueAsString(rows));
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to cache AI chunk {}: {}", cacheKey, e.getMessage());
+        }
+    }
+
+    private void recordChunkCacheStats(int hits, int misses) {
+        int total = hits + misses;
+        if (total == 0) {
+            return;
+        }
+        chunkCacheHits.increment(hits);
+        chunkCacheMisses.increment(misses);
+        chunkCacheHitRatio.record(hits * 100.0 / total);
+        log.info("AI chunk cache: {} hit(s), {} miss(es), {}% hit ratio", hits, misses, Math.round(hits * 100.0 / total));
+    }
+
+    /**
+     * Walks the sheets in order alongside the cleaned rows, which arrive in the order their
+     * rows were sent, and fills in the rows between them that needed no cleaning. Each
+     * cleaned row goes to the row its index names; a row whose index is not past the last
+     * one placed has nowhere to go and is dropped, and sent rows the model skipped are
+     * emitted as they were.
+     */
+    private static final class SheetMerger {
+
+        private final List<SheetProjection> sheets;
+        private int sheet;
+        private int row;
+        private int cleaned;
+
+        SheetMerger(List<SheetProjection> sheets) {
+            this.sheets = sheets;
+        }
+
+        List<SheetRow> accept(IndexedRow cleanedRow) {
+            List<SheetRow> out = new ArrayList<>();
+            while (sheet < sheets.size() && !sheets.get(sheet).sheetName().equals(cleanedRow.sheetName())) {
+                drainSheet(out);
+            }
+            if (sheet == sheets.size()) {
+                return out;
+            }
+
+            SheetProjection projection = sheets.get(sheet);
+            int index = cleanedRow.index();
+            if (index >= cleaned && index < projection.dirtyRows().length) {
+                int target = projection.dirtyRows()[index];
+                while (row < target) {
+                    out.add(new SheetRow(projection.sheetName(), projection.rows().get(row++)));
+                }
+                out.add(new SheetRow(projection.sheetName(), projection.merge(index, cleanedRow.row())));
+                row++;
+                cleaned = index + 1;
+            }
+            return out;
+        }
+
+        List<SheetRow> finish() {
+            List<SheetRow> out = new ArrayList<>();
+            while (sheet < sheets.size()) {
+                drainSheet(out);
+            }
+            return out;
+        }
+
+        private void drainSheet(List<SheetRow> out) {
+            SheetProjection projection = sheets.get(sheet);
+            while (row < projection.rows().size()) {
+                out.add(new SheetRow(projection.sheetName(), projection.rows().get(row++)));
+            }
+            sheet++;
+            row = 0;
+            cleaned = 0;
+        }
     }
 
     private Map<String, Object> buildRequestBody(String prompt) {
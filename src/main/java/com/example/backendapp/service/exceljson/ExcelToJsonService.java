@@ -1,8 +1,15 @@
 package com.example.backendapp.service.exceljson;
 
 import com.example.backendapp.cache.ExcelToJsonCache;
+import com.example.backendapp.cache.RequestCoalescer;
 import com.example.backendapp.exception.ConversionException;
+import com.example.backendapp.metrics.MeteredOutputStream;
+import com.example.backendapp.metrics.PipelineMetrics;
+import com.example.backendapp.metrics.PipelineMetrics.Stage;
+import com.example.backendapp.model.FormulaMode;
 import com.example.backendapp.util.CacheKeyUtil;
+import com.example.backendapp.util.SpooledUpload;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
@@ -10,9 +17,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -25,25 +37,191 @@ public class ExcelToJsonService {
     private final AiExcelToJsonService aiService;
     private final ExcelToJsonCache excelToJsonCache;
     private final ObjectMapper objectMapper;
+    private final RequestCoalescer requestCoalescer;
+    private final PipelineMetrics pipelineMetrics;
 
     @Autowired
     public ExcelToJsonService(RawExcelToJsonService rawService,
                               AiExcelToJsonService aiService,
                               ExcelToJsonCache excelToJsonCache,
-                              ObjectMapper objectMapper) {
+                              ObjectMapper objectMapper,
+                              RequestCoalescer requestCoalescer,
+                              PipelineMetrics pipelineMetrics) {
         this.rawService = rawService;
         this.aiService = aiService;
         this.excelToJsonCache = excelToJsonCache;
         this.objectMapper = objectMapper;
+        this.requestCoalescer = requestCoalescer;
+        this.pipelineMetrics = pipelineMetrics;
     }
 
-    public Mono<Object> convert(MultipartFile file, boolean useAI) {
+    public Mono<Object> convert(MultipartFile file, boolean useAI, FormulaMode formulaMode) {
+        try {
+            validateUpload(file);
+        } catch (ConversionException ce) {
+            return Mono.error(ce);
+        }
+
+        PipelineMetrics.Recorder metrics = pipelineMetrics.forRequest(PipelineMetrics.EXCEL_TO_JSON, useAI);
+        return Mono.using(
+                () -> spool(file, metrics),
+                upload -> {
+                    String cacheKey = CacheKeyUtil.generateExcelJsonKey(upload.getSha256(), useAI, formulaMode.name());
+                    long lookupStart = System.nanoTime();
+                    InputStream cachedJson = excelToJsonCache.open(cacheKey);
+                    metrics.record(Stage.CACHE_LOOKUP, lookupStart);
+
+                    if (cachedJson != null) {
+                        log.info("Cache HIT for full Excel-to-JSON");
+                        return Mono.fromCallable(() -> {
+                                    try (cachedJson) {
+                                        return objectMapper.readValue(cachedJson, Object.class);
+                                    }
+                                })
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .onErrorResume(e -> {
+                                    log.warn("Failed to parse cached JSON. Reprocessing: {}", e.getMessage());
+                                    return Mono.empty();
+                                });
+                    }
+
+                    // Identical uploads in flight share one conversion, which keeps the upload until it ends.
+                    return requestCoalescer.coalesce(cacheKey, () -> convertAndCache(upload.retain(), cacheKey, useAI, formulaMode, metrics)
+                            .doFinally(signal -> upload.close()));
+                },
+                SpooledUpload::close
+        ).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<Object> convertAndCache(SpooledUpload upload, String cacheKey, boolean useAI, FormulaMode formulaMode,
+                                         PipelineMetrics.Recorder metrics) {
+        return rawService.convertAsync(upload.getPath(), formulaMode, metrics)
+                .flatMap(rawData -> {
+                    Mono<Object> resultMono = useAI
+                            ? Mono.fromCallable(() -> parseJson(rawData,
+                                    new TypeReference<Map<String, List<Map<String, Object>>>>() {}, metrics))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .flatMap(data -> {
+                                long start = System.nanoTime();
+                                return aiService.enhance(data)
+                                        .doOnNext(enhanced -> metrics.record(Stage.AI_ENHANCE, start));
+                            })
+                            : Mono.fromCallable(() -> parseJson(rawData, new TypeReference<Object>() {}, metrics))
+                            .subscribeOn(Schedulers.boundedElastic());
+
+                    return resultMono.flatMap(result ->
+                            Mono.fromCallable(() -> {
+                                long storeStart = System.nanoTime();
+                                excelToJsonCache.put(cacheKey, out -> objectMapper.writeValue(out, result));
+                                metrics.record(Stage.CACHE_STORE, storeStart);
+                                log.info("Cached Excel-to-JSON result");
+                                return result;
+                            }).subscribeOn(Schedulers.boundedElastic())
+                    );
+                });
+    }
+
+    private <T> T parseJson(String json, TypeReference<T> type, PipelineMetrics.Recorder metrics) throws IOException {
+        long start = System.nanoTime();
+        T value = objectMapper.readValue(json, type);
+        metrics.record(Stage.JSON_PARSE, start);
+        return value;
+    }
+
+    /**
+     * Streaming variant of {@link #convert}: rows are written to the response as they are
+     * read, or with {@code useAI} as soon as Gemini has written them, instead of being
+     * buffered. Cache hits are served as-is, but streamed results are not cached since
+     * that would require holding a full copy; enhanced chunks are still cached one by one.
+     */
+    public StreamingResponseBody stream(MultipartFile file, boolean useAI, FormulaMode formulaMode) {
+        validateUpload(file);
+
+        PipelineMetrics.Recorder metrics = pipelineMetrics.forRequest(PipelineMetrics.EXCEL_TO_JSON, useAI);
+        return response -> {
+            try (SpooledUpload upload = spool(file, metrics);
+                 MeteredOutputStream out = metrics.meter(response)) {
+                String cacheKey = CacheKeyUtil.generateExcelJsonKey(upload.getSha256(), useAI, formulaMode.name());
+                long lookupStart = System.nanoTime();
+                boolean hit = excelToJsonCache.writeTo(cacheKey, out);
+                metrics.record(Stage.CACHE_LOOKUP, lookupStart);
+                if (hit) {
+                    log.info("Cache HIT for streamed Excel-to-JSON");
+                    return;
+                }
+
+                if (useAI) {
+                    writeEnhancedJson(upload, formulaMode, out, metrics);
+                } else {
+                    rawService.writeJson(upload.getPath(), formulaMode, out, metrics);
+                }
+            }
+        };
+    }
+
+    // Same shape as the buffered result: every sheet in workbook order, empty ones included.
+    private void writeEnhancedJson(SpooledUpload upload, FormulaMode formulaMode, OutputStream out,
+                                   PipelineMetrics.Recorder metrics) throws IOException {
+        Map<String, List<Map<String, Object>>> data = parseJson(
+                rawService.convertAsync(upload.getPath(), formulaMode, metrics).block(), new TypeReference<>() {}, metrics);
+        Iterator<String> sheetNames = data.keySet().iterator();
+        long enhanceStart = System.nanoTime();
+
+        JsonGenerator gen = objectMapper.getFactory().createGenerator(out);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        gen.writeStartObject();
+        String currentSheet = null;
+        for (AiExcelToJsonService.SheetRow row : aiService.enhanceRows(data).toIterable()) {
+            if (!row.sheetName().equals(currentSheet)) {
+                if (currentSheet != null) {
+                    gen.writeEndArray();
+                }
+                currentSheet = row.sheetName();
+                writeEmptySheetsUntil(gen, sheetNames, currentSheet);
+                gen.writeArrayFieldStart(currentSheet);
+            }
+            gen.writeObject(row.row());
+            gen.flush();
+        }
+        if (currentSheet != null) {
+            gen.writeEndArray();
+        }
+        writeEmptySheetsUntil(gen, sheetNames, null);
+        gen.writeEndObject();
+        gen.close();
+        metrics.record(Stage.AI_ENHANCE, enhanceStart);
+    }
+
+    private static void writeEmptySheetsUntil(JsonGenerator gen, Iterator<String> sheetNames, String sheetName) throws IOException {
+        while (sheetNames.hasNext()) {
+            String next = sheetNames.next();
+            if (next.equals(sheetName)) {
+                return;
+            }
+            gen.writeArrayFieldStart(next);
+            gen.writeEndArray();
+        }
+    }
+
+    private SpooledUpload spool(MultipartFile file, PipelineMetrics.Recorder metrics) {
+        long start = System.nanoTime();
+        try {
+            SpooledUpload upload = SpooledUpload.of(file);
+            metrics.record(Stage.UPLOAD_READ, start);
+            metrics.bytes(Stage.UPLOAD_READ, upload.getSize());
+            return upload;
+        } catch (IOException e) {
+            throw new ConversionException("Failed to read uploaded file: " + e.getMessage(), e);
+        }
+    }
+
+    private void validateUpload(MultipartFile file) {
         if (file == null || file.isEmpty()) {
-            return Mono.error(new ConversionException("Uploaded Excel file is missing or empty."));
+            throw new ConversionException("Uploaded Excel file is missing or empty.");
         }
 
         if (file.getSize() > 10 * 1024 * 1024) {
-            return Mono.error(new ConversionException("File is too large. Max allowed is 10 MB."));
+            throw new ConversionException("File is too large. Max allowed is 10 MB.");
         }
 
         String name = file.getOriginalFilename();
@@ -53,48 +231,7 @@ public class ExcelToJsonService {
                 !(type.equals("application/vnd.ms-excel") ||
                         type.equals("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet") ||
                         type.equals("application/vnd.ms-excel.sheet.macroEnabled.12"))) {
-            return Mono.error(new ConversionException("Only .xls, .xlsx, or .xlsm Excel files are allowed."));
-        }
-
-        try {
-            String cacheKey = CacheKeyUtil.generateExcelJsonKey(file, useAI);
-            String cachedJson = excelToJsonCache.get(cacheKey);
-
-            if (cachedJson != null) {
-                log.info("Cache HIT for full Excel-to-JSON");
-                return Mono.fromCallable(() -> objectMapper.readValue(cachedJson, Object.class))
-                        .subscribeOn(Schedulers.boundedElastic())
-                        .onErrorResume(e -> {
-                            log.warn("Failed to parse cached JSON. Reprocessing: {}", e.getMessage());
-                            return Mono.empty();
-                        });
-            }
-
-            return rawService.convertAsync(file)
-                    .flatMap(rawData -> {
-                        Mono<Object> resultMono = useAI
-                                ? Mono.fromCallable(() ->
-                                        objectMapper.readValue(rawData, new TypeReference<Map<String, List<Map<String, Object>>>>() {}))
-                                .subscribeOn(Schedulers.boundedElastic())
-                                .flatMap(aiService::enhance)
-                                : Mono.fromCallable(() ->
-                                        objectMapper.readValue(rawData, new TypeReference<>() {}))
-                                .subscribeOn(Schedulers.boundedElastic());
-
-                        return resultMono.flatMap(result ->
-                                Mono.fromCallable(() -> {
-                                    String json = objectMapper.writeValueAsString(result);
-                                    excelToJsonCache.put(cacheKey, json);
-                                    log.info("Cached Excel-to-JSON result");
-                                    return result;
-                                }).subscribeOn(Schedulers.boundedElastic())
-                        );
-                    });
-
-        } catch (ConversionException ce) {
-            return Mono.error(ce);
-        } catch (Exception e) {
-            return Mono.error(new ConversionException("Excel-to-JSON conversion failed: " + e.getMessage(), e));
+            throw new ConversionException("Only .xls, .xlsx, or .xlsm Excel files are allowed.");
         }
     }
 }
@@ -1,45 +1,198 @@
 package com.example.backendapp.service.exceljson;
 
 import com.example.backendapp.exception.ConversionException;
+import com.example.backendapp.metrics.PipelineMetrics;
+import com.example.backendapp.metrics.PipelineMetrics.Stage;
+import com.example.backendapp.model.FormulaMode;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFCell;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 @Service
 public class RawExcelToJsonService {
 
+    // Sheets are parsed on Schedulers.parallel(), which already has one worker per core.
+    private static final int SHEET_CONCURRENCY = Math.max(1, Runtime.getRuntime().availableProcessors());
+
     private final ObjectMapper objectMapper;
 
     public RawExcelToJsonService() {
-        this.objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        this.objectMapper = new ObjectMapper();
+    }
+
+    public Mono<String> convertAsync(Path path, FormulaMode formulaMode) {
+        return convertAsync(path, formulaMode, PipelineMetrics.UNRECORDED);
+    }
+
+    public Mono<String> convertAsync(Path path, FormulaMode formulaMode, PipelineMetrics.Recorder metrics) {
+        return Mono.defer(() -> useStreamingReader(path, formulaMode)
+                        ? convertXlsx(path, metrics)
+                        : convertWithWorkbook(path, formulaMode, metrics))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Writes the workbook as compact JSON directly to {@code out}, one row at a time.
+     * Each sheet is flushed as soon as it has been read, so the client starts receiving
+     * data while later sheets are still being parsed. Nothing is written if the
+     * workbook turns out to hold no usable data.
+     */
+    public void writeJson(Path path, FormulaMode formulaMode, OutputStream out) throws IOException {
+        writeJson(path, formulaMode, out, PipelineMetrics.UNRECORDED);
+    }
+
+    /**
+     * {@link #writeJson(Path, FormulaMode, OutputStream)}, recording each sheet as a
+     * {@code sheet_parse} that includes writing its rows to {@code out}.
+     */
+    public void writeJson(Path path, FormulaMode formulaMode, OutputStream out,
+                          PipelineMetrics.Recorder metrics) throws IOException {
+        JsonGenerator gen = objectMapper.getFactory().createGenerator(out);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        WorkbookJsonWriter writer = new WorkbookJsonWriter(gen);
+        SheetCounter counter = new SheetCounter();
+
+        if (!useStreamingReader(path, formulaMode)) {
+            writeWithWorkbook(path, formulaMode, writer, counter, metrics);
+        } else if (!writeXlsx(path, writer, counter, metrics)) {
+            writeWithWorkbook(path, FormulaMode.EVALUATE, writer, counter, metrics);
+        }
+
+        writer.finish();
+        gen.close();
+        counter.recordTo(metrics);
     }
 
-    public Mono<String> convertAsync(MultipartFile file) {
-        if (file.isEmpty()) {
-            return Mono.error(new ConversionException("Uploaded file is empty."));
+    // Returns false, having written nothing, when the workbook has formulas that must be evaluated.
+    private boolean writeXlsx(Path path, WorkbookJsonWriter writer, SheetCounter counter,
+                              PipelineMetrics.Recorder metrics) throws IOException {
+        long openStart = System.nanoTime();
+        try (XlsxStreamingReader reader = XlsxStreamingReader.open(path)) {
+            metrics.record(Stage.WORKBOOK_OPEN, openStart);
+            List<String> sheetNames = reader.getSheetNames();
+            if (sheetNames.isEmpty()) {
+                throw new ConversionException("Excel file contains no sheets.");
+            }
+            if (reader.hasUncachedFormulas()) {
+                return false;
+            }
+
+            for (int i = 0; i < sheetNames.size(); i++) {
+                long sheetStart = System.nanoTime();
+                writer.startSheet(sheetNames.get(i));
+                reader.readSheet(i, row -> {
+                    counter.add(row);
+                    writer.writeRow(row);
+                });
+                writer.endSheet();
+                metrics.record(Stage.SHEET_PARSE, sheetStart);
+            }
+            return true;
+        } catch (IOException | ConversionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ConversionException("Failed to stream workbook", e);
+        }
+    }
+
+    private void writeWithWorkbook(Path path, FormulaMode formulaMode, WorkbookJsonWriter writer,
+                                   SheetCounter counter, PipelineMetrics.Recorder metrics) throws IOException {
+        long openStart = System.nanoTime();
+        try (InputStream inputStream = Files.newInputStream(path);
+             Workbook workbook = WorkbookFactory.create(inputStream)) {
+            metrics.record(Stage.WORKBOOK_OPEN, openStart);
+            if (workbook.getNumberOfSheets() == 0) {
+                throw new ConversionException("Excel file contains no sheets.");
+            }
+
+            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+            for (Sheet sheet : workbook) {
+                long sheetStart = System.nanoTime();
+                writer.startSheet(sheet.getSheetName());
+                for (Map<String, Object> row : processSheet(sheet, evaluator, formulaMode).getOrDefault(sheet.getSheetName(), List.of())) {
+                    counter.add(row);
+                    writer.writeRow(row);
+                }
+                writer.endSheet();
+                metrics.record(Stage.SHEET_PARSE, sheetStart);
+            }
         }
+    }
 
+    private Mono<String> convertXlsx(Path path, PipelineMetrics.Recorder metrics) {
+        Mono<String> streamed = Mono.using(
+                () -> {
+                    long openStart = System.nanoTime();
+                    try {
+                        XlsxStreamingReader reader = XlsxStreamingReader.open(path);
+                        metrics.record(Stage.WORKBOOK_OPEN, openStart);
+                        return reader;
+                    } catch (Exception e) {
+                        throw new ConversionException("Failed to open workbook for streaming", e);
+                    }
+                },
+                reader -> {
+                    List<String> sheetNames = reader.getSheetNames();
+                    if (sheetNames.isEmpty()) {
+                        return Mono.error(new ConversionException("Excel file contains no sheets."));
+                    }
+
+                    return Flux.range(0, sheetNames.size())
+                            .flatMapSequential(i -> Mono.fromCallable(() -> {
+                                        long sheetStart = System.nanoTime();
+                                        List<Map<String, Object>> sheetData = new ArrayList<>();
+                                        reader.readSheetIsolated(i, sheetData::add);
+                                        metrics.record(Stage.SHEET_PARSE, sheetStart);
+                                        return sheetData;
+                                    })
+                                    .subscribeOn(Schedulers.parallel()), SHEET_CONCURRENCY)
+                            .collectList()
+                            .flatMap(sheetRows -> {
+                                Map<String, List<Map<String, Object>>> workbookData = new LinkedHashMap<>();
+                                for (int i = 0; i < sheetRows.size(); i++) {
+                                    if (!sheetRows.get(i).isEmpty()) {
+                                        workbookData.put(sheetNames.get(i), sheetRows.get(i));
+                                    }
+                                }
+                                return serialize(workbookData, metrics);
+                            });
+                },
+                XlsxStreamingReader::close
+        );
+        return streamed.onErrorResume(XlsxStreamingReader.UncachedFormulaException.class,
+                e -> convertWithWorkbook(path, FormulaMode.EVALUATE, metrics));
+    }
+
+    private Mono<String> convertWithWorkbook(Path path, FormulaMode formulaMode, PipelineMetrics.Recorder metrics) {
         return Mono.using(
                 () -> {
                     try {
-                        return file.getInputStream();
+                        return Files.newInputStream(path);
                     } catch (IOException e) {
                         throw new ConversionException("Failed to open uploaded file stream", e);
                     }
                 },
                 inputStream -> Mono.using(
                         () -> {
+                            long openStart = System.nanoTime();
                             try {
-                                return WorkbookFactory.create(inputStream);
+                                Workbook workbook = WorkbookFactory.create(inputStream);
+                                metrics.record(Stage.WORKBOOK_OPEN, openStart);
+                                return workbook;
                             } catch (IOException e) {
                                 throw new ConversionException("Failed to create workbook from input stream", e);
                             }
@@ -49,37 +202,15 @@ public class RawExcelToJsonService {
                                 return Mono.error(new ConversionException("Excel file contains no sheets."));
                             }
 
-                            List<String> sheetOrder = new ArrayList<>();
-                            workbook.sheetIterator().forEachRemaining(sheet -> sheetOrder.add(sheet.getSheetName()));
-
-                            return Flux.fromIterable(workbook::sheetIterator)
-                                    .parallel()
-                                    .runOn(Schedulers.parallel())
-                                    .map(this::processSheet)
-                                    .sequential()
-                                    .collectList()
-                                    .flatMap(sheetMaps -> {
-                                        Map<String, List<Map<String, Object>>> workbookData = new LinkedHashMap<>();
-
-                                        for (String sheetName : sheetOrder) {
-                                            for (Map<String, List<Map<String, Object>>> sheetMap : sheetMaps) {
-                                                if (sheetMap.containsKey(sheetName)) {
-                                                    workbookData.put(sheetName, sheetMap.get(sheetName));
-                                                    break;
-                                                }
-                                            }
-                                        }
-
-                                        if (workbookData.isEmpty()) {
-                                            return Mono.error(new ConversionException("Excel file contains no usable data."));
-                                        }
-
-                                        try {
-                                            return Mono.just(objectMapper.writeValueAsString(workbookData));
-                                        } catch (Exception e) {
-                                            return Mono.error(new ConversionException("Failed to serialize JSON", e));
-                                        }
-                                    });
+                            // One thread and one evaluator: POI workbooks are not safe for concurrent reads.
+                            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+                            Map<String, List<Map<String, Object>>> workbookData = new LinkedHashMap<>();
+                            for (Sheet sheet : workbook) {
+                                long sheetStart = System.nanoTime();
+                                workbookData.putAll(processSheet(sheet, evaluator, formulaMode));
+                                metrics.record(Stage.SHEET_PARSE, sheetStart);
+                            }
+                            return serialize(workbookData, metrics);
                         },
                         workbook -> {
                             try {
@@ -92,11 +223,61 @@ public class RawExcelToJsonService {
                         inputStream.close();
                     } catch (IOException ignored) {}
                 }
-        ).subscribeOn(Schedulers.boundedElastic());
+        );
     }
 
+    private Mono<String> serialize(Map<String, List<Map<String, Object>>> workbookData, PipelineMetrics.Recorder metrics) {
+        if (workbookData.isEmpty()) {
+            return Mono.error(new ConversionException("Excel file contains no usable data."));
+        }
+
+        SheetCounter counter = new SheetCounter();
+        workbookData.values().forEach(rows -> rows.forEach(counter::add));
+        counter.recordTo(metrics);
+
+        long start = System.nanoTime();
+        try {
+            String json = objectMapper.writeValueAsString(workbookData);
+            metrics.record(Stage.JSON_SERIALIZE, start);
+            metrics.bytes(Stage.JSON_SERIALIZE, json.length());
+            return Mono.just(json);
+        } catch (Exception e) {
+            return Mono.error(new ConversionException("Failed to serialize JSON", e));
+        }
+    }
 
-    private Map<String, List<Map<String, Object>>> processSheet(Sheet sheet) {
+    // Rows and cells read from all sheets of one workbook.
+    private static final class SheetCounter {
+        private long rows;
+        private long cells;
+
+        void add(Map<String, Object> row) {
+            rows++;
+            cells += row.size();
+        }
+
+        void recordTo(PipelineMetrics.Recorder metrics) {
+            metrics.rows(Stage.SHEET_PARSE, rows);
+            metrics.cells(Stage.SHEET_PARSE, cells);
+        }
+    }
+
+    // Streaming works off cached formula results, so recalculation needs the in-memory workbook.
+    // Workbooks whose formulas have no cached results are evaluated there as well.
+    private boolean useStreamingReader(Path path, FormulaMode formulaMode) {
+        return formulaMode != FormulaMode.EVALUATE && isOoxml(path);
+    }
+
+    private boolean isOoxml(Path path) {
+        try (InputStream in = FileMagic.prepareToCheckMagic(Files.newInputStream(path))) {
+            return FileMagic.valueOf(in) == FileMagic.OOXML;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    Map<String, List<Map<String, Object>>> processSheet(Sheet sheet, FormulaEvaluator evaluator, FormulaMode formulaMode) {
         List<Map<String, Object>> sheetData = new ArrayList<>();
         DataFormatter formatter = new DataFormatter();
 
@@ -129,7 +310,7 @@ public class RawExcelToJsonService {
 
             for (int j = 0; j < headers.size(); j++) {
                 Cell cell = row.getCell(j, Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
-                Object value = getCellValue(cell);
+                Object value = getCellValue(cell, evaluator, formulaMode);
                 if (value != null && !(value instanceof String && ((String) value).isBlank())) {
                     nonEmpty = true;
                 }
@@ -144,6 +325,20 @@ public class RawExcelToJsonService {
 
     public Object getCellValue(Cell cell) {
         if (cell == null) return null;
+        FormulaEvaluator evaluator = cell.getCellType() == CellType.FORMULA
+                ? cell.getSheet().getWorkbook().getCreationHelper().createFormulaEvaluator()
+                : null;
+        return getCellValue(cell, evaluator, FormulaMode.EVALUATE);
+    }
+
+    /**
+     * Converts a cell to its JSON value. Formula cells are recalculated with
+     * {@code evaluator}, which should be shared across the sheet so POI can reuse its
+     * evaluation cache. In {@link FormulaMode#CACHED} the result stored in the file is
+     * read instead, and {@code evaluator} is only used for formulas stored without one.
+     */
+    public Object getCellValue(Cell cell, FormulaEvaluator evaluator, FormulaMode formulaMode) {
+        if (cell == null) return null;
 
         try {
             switch (cell.getCellType()) {
@@ -172,8 +367,9 @@ public class RawExcelToJsonService {
                     return cell.getBooleanCellValue();
 
                 case FORMULA:
-                    FormulaEvaluator evaluator = cell.getSheet().getWorkbook()
-                            .getCreationHelper().createFormulaEvaluator();
+                    if (formulaMode == FormulaMode.CACHED && hasCachedResult(cell)) {
+                        return getCachedFormulaValue(cell);
+                    }
                     CellValue cellValue = evaluator.evaluate(cell);
 
                     switch (cellValue.getCellType()) {
@@ -209,4 +405,82 @@ public class RawExcelToJsonService {
             return "#EVAL_ERROR!";
         }
     }
-}
\ No newline at end of file
+
+    // Files from openpyxl or SXSSF store formulas without results; .xls always stores them.
+    private static boolean hasCachedResult(Cell cell) {
+        return !(cell instanceof XSSFCell xssfCell) || xssfCell.getCTCell().isSetV();
+    }
+
+    private Object getCachedFormulaValue(Cell cell) {
+        switch (cell.getCachedFormulaResultType()) {
+            case STRING:
+                return cell.getStringCellValue();
+            case NUMERIC:
+                if (DateUtil.isCellDateFormatted(cell)) {
+                    Date javaDate = cell.getDateCellValue();
+                    return javaDate != null ? javaDate.toInstant().toString() : null;
+                }
+                double numVal = cell.getNumericCellValue();
+                if (numVal == Math.floor(numVal)) {
+                    if (numVal >= Long.MIN_VALUE && numVal <= Long.MAX_VALUE) {
+                        return (long) numVal;
+                    }
+                }
+                return numVal;
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            case ERROR:
+                return "#ERROR_" + FormulaError.forInt(cell.getErrorCellValue()).getString();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Opens the top-level object and each sheet array lazily, so sheets without rows are
+     * omitted exactly as in the buffered conversion.
+     */
+    private static final class WorkbookJsonWriter {
+
+        private final JsonGenerator gen;
+        private boolean started;
+        private String pendingSheet;
+        private boolean sheetOpen;
+
+        WorkbookJsonWriter(JsonGenerator gen) {
+            this.gen = gen;
+        }
+
+        void startSheet(String sheetName) {
+            pendingSheet = sheetName;
+        }
+
+        void writeRow(Map<String, Object> row) throws IOException {
+            if (!started) {
+                gen.writeStartObject();
+                started = true;
+            }
+            if (!sheetOpen) {
+                gen.writeArrayFieldStart(pendingSheet);
+                sheetOpen = true;
+            }
+            gen.writeObject(row);
+        }
+
+        void endSheet() throws IOException {
+            if (sheetOpen) {
+                gen.writeEndArray();
+                gen.flush();
+                sheetOpen = false;
+            }
+        }
+
+        void finish() throws IOException {
+            if (!started) {
+                throw new ConversionException("Excel file contains no usable data.");
+            }
+            gen.writeEndObject();
+            gen.flush();
+        }
+    }
+}
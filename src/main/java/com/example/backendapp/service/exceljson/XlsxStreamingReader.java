@@ -0,0 +1,455 @@
+package com.example.backendapp.service.exceljson;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagePartName;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.ExcelNumberFormat;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Reads .xlsx/.xlsm workbooks straight from the sheet XML with a SAX parser, so the
+ * XSSF object model is never built. Rows are handed to a {@link SheetRowHandler} one
+ * at a time using the same header detection and cell conversion rules as
+ * {@link RawExcelToJsonService#getCellValue}. Formula cells use the result cached in
+ * the file instead of being re-evaluated; a data cell whose formula has no cached result,
+ * as written by openpyxl or POI's SXSSF, fails the read with
+ * {@link UncachedFormulaException} so the caller can evaluate the workbook instead.
+ * <p>
+ * Shared strings and number formats are loaded once and only read afterwards, so
+ * several threads may call {@link #readSheetIsolated} on the same reader.
+ */
+class XlsxStreamingReader implements AutoCloseable {
+
+    @FunctionalInterface
+    interface SheetRowHandler {
+        void onRow(Map<String, Object> row) throws Exception;
+    }
+
+    /**
+     * A formula cell in the data rows has no result stored in the file, so its value can
+     * only be had by evaluating the workbook.
+     */
+    static final class UncachedFormulaException extends Exception {
+        UncachedFormulaException(String cellReference) {
+            super("Formula in " + cellReference + " has no cached result");
+        }
+    }
+
+    private record RawCell(int column, String type, int styleIndex, String value, String formula,
+                           boolean hasFormula, boolean hasValue) {}
+
+    private final Path path;
+    private final OPCPackage pkg;
+    private final SharedStrings sharedStrings;
+    private final ExcelNumberFormat[] numberFormats;
+    private final boolean date1904;
+    private final List<String> sheetNames = new ArrayList<>();
+    private final List<PackagePart> sheetParts = new ArrayList<>();
+
+    private XlsxStreamingReader(Path path, OPCPackage pkg) throws Exception {
+        this.path = path;
+        this.pkg = pkg;
+        XSSFReader reader = new XSSFReader(pkg);
+        this.sharedStrings = new ReadOnlySharedStringsTable(pkg);
+        this.numberFormats = loadNumberFormats(reader.getStylesTable());
+        this.date1904 = readDate1904(reader);
+
+        XSSFReader.SheetIterator sheets = reader.getSheetIterator();
+        while (sheets.hasNext()) {
+            try (InputStream ignored = sheets.next()) {
+                sheetNames.add(sheets.getSheetName());
+                sheetParts.add(sheets.getSheetPart());
+            }
+        }
+    }
+
+    static XlsxStreamingReader open(Path path) throws Exception {
+        OPCPackage pkg = OPCPackage.open(path.toFile(), PackageAccess.READ);
+        try {
+            return new XlsxStreamingReader(path, pkg);
+        } catch (Exception e) {
+            pkg.revert();
+            throw e;
+        }
+    }
+
+    List<String> getSheetNames() {
+        return Collections.unmodifiableList(sheetNames);
+    }
+
+    void readSheet(int sheetIndex, SheetRowHandler handler) throws Exception {
+        try (InputStream sheetStream = sheetParts.get(sheetIndex).getInputStream()) {
+            parseSheet(sheetStream, handler);
+        }
+    }
+
+    /**
+     * Like {@link #readSheet}, but opens a private read-only package for the sheet's XML
+     * part, so it is safe to call from several threads at once. The zip package itself
+     * is not thread-safe; the shared strings and styles loaded here are.
+     */
+    void readSheetIsolated(int sheetIndex, SheetRowHandler handler) throws Exception {
+        PackagePartName partName = sheetParts.get(sheetIndex).getPartName();
+        OPCPackage sheetPkg = OPCPackage.open(path.toFile(), PackageAccess.READ);
+        try (InputStream sheetStream = sheetPkg.getPart(partName).getInputStream()) {
+            parseSheet(sheetStream, handler);
+        } finally {
+            sheetPkg.revert();
+        }
+    }
+
+    /**
+     * Whether any sheet holds a formula cell without a cached result. Streaming callers
+     * check this before writing anything, since {@link UncachedFormulaException} cannot
+     * be recovered from once rows have been sent. Header cells are counted too, so a
+     * {@code true} answer may occasionally be more cautious than needed.
+     */
+    boolean hasUncachedFormulas() throws Exception {
+        for (PackagePart sheetPart : sheetParts) {
+            try (InputStream sheetStream = sheetPart.getInputStream()) {
+                XMLReader xmlReader = XMLHelper.newXMLReader();
+                xmlReader.setContentHandler(new UncachedFormulaScan());
+                xmlReader.parse(new InputSource(sheetStream));
+            } catch (UncachedFormulaScan.Found e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void parseSheet(InputStream sheetStream, SheetRowHandler handler) throws Exception {
+        try {
+            XMLReader xmlReader = XMLHelper.newXMLReader();
+            xmlReader.setContentHandler(new SheetHandler(handler));
+            xmlReader.parse(new InputSource(sheetStream));
+        } catch (SAXException e) {
+            throw e.getException() != null ? e.getException() : e;
+        }
+    }
+
+    @Override
+    public void close() {
+        pkg.revert();
+    }
+
+    private static ExcelNumberFormat[] loadNumberFormats(StylesTable styles) {
+        if (styles == null) {
+            return new ExcelNumberFormat[0];
+        }
+        ExcelNumberFormat[] formats = new ExcelNumberFormat[styles.getNumCellStyles()];
+        for (int i = 0; i < formats.length; i++) {
+            formats[i] = ExcelNumberFormat.from(styles.getStyleAt(i));
+        }
+        return formats;
+    }
+
+    private static boolean readDate1904(XSSFReader reader) throws Exception {
+        boolean[] date1904 = {false};
+        try (InputStream workbookStream = reader.getWorkbookData()) {
+            XMLReader xmlReader = XMLHelper.newXMLReader();
+            xmlReader.setContentHandler(new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    if ("workbookPr".equals(localName)) {
+                        String value = attributes.getValue("date1904");
+                        date1904[0] = "1".equals(value) || "true".equalsIgnoreCase(value);
+                    }
+                }
+            });
+            xmlReader.parse(new InputSource(workbookStream));
+        }
+        return date1904[0];
+    }
+
+    private ExcelNumberFormat numberFormat(int styleIndex) {
+        if (styleIndex >= 0 && styleIndex < numberFormats.length && numberFormats[styleIndex] != null) {
+            return numberFormats[styleIndex];
+        }
+        return new ExcelNumberFormat(0, "General");
+    }
+
+    private boolean isDateFormatted(double value, int styleIndex) {
+        return DateUtil.isValidExcelDate(value) && DateUtil.isADateFormat(numberFormat(styleIndex));
+    }
+
+    private Object toCellValue(RawCell cell) {
+        try {
+            String type = cell.type() == null ? "n" : cell.type();
+            switch (type) {
+                case "s":
+                    return cell.value().isEmpty() ? "" : sharedStrings.getItemAt(Integer.parseInt(cell.value())).getString();
+
+                case "inlineStr":
+                case "str":
+                    return cell.value();
+
+                case "b":
+                    return "1".equals(cell.value()) || "true".equalsIgnoreCase(cell.value());
+
+                case "e":
+                    return (cell.hasFormula() ? "#ERROR_" : "#CELL_ERROR_") + FormulaError.forString(cell.value()).getString();
+
+                default:
+                    if (cell.value().isEmpty()) return null;
+                    double numValue = Double.parseDouble(cell.value());
+
+                    if (cell.hasFormula()) {
+                        if (isDateFormatted(numValue, cell.styleIndex())) {
+                            Date javaDate = DateUtil.getJavaDate(numValue, date1904);
+                            return javaDate != null ? javaDate.toInstant().toString() : null;
+                        }
+                        if (numValue == Math.floor(numValue)) {
+                            if (numValue >= Long.MIN_VALUE && numValue <= Long.MAX_VALUE) {
+                                return (long) numValue;
+                            }
+                        }
+                        return numValue;
+                    }
+
+                    if (isDateFormatted(numValue, cell.styleIndex())) {
+                        try {
+                            return DateUtil.getLocalDateTime(numValue, date1904).toString();
+                        } catch (Exception e) {
+                            Date javaDate = DateUtil.getJavaDate(numValue, date1904);
+                            return javaDate != null ? javaDate.toInstant().toString() : null;
+                        }
+                    }
+                    if (numValue == Math.floor(numValue) && !Double.isInfinite(numValue)) {
+                        if (numValue >= Long.MIN_VALUE && numValue <= Long.MAX_VALUE) {
+                            return (long) numValue;
+                        }
+                    }
+                    return numValue;
+            }
+        } catch (Exception e) {
+            return "#EVAL_ERROR!";
+        }
+    }
+
+    // Mirrors DataFormatter.formatCellValue(cell) without an evaluator, which is what the header row uses.
+    private String toHeaderText(RawCell cell, DataFormatter formatter) {
+        if (cell.hasFormula() && !cell.formula().isEmpty()) {
+            return cell.formula();
+        }
+        try {
+            String type = cell.type() == null ? "n" : cell.type();
+            return switch (type) {
+                case "s" -> cell.value().isEmpty() ? "" : sharedStrings.getItemAt(Integer.parseInt(cell.value())).getString();
+                case "inlineStr", "str" -> cell.value();
+                case "b" -> "1".equals(cell.value()) || "true".equalsIgnoreCase(cell.value()) ? "TRUE" : "FALSE";
+                case "e" -> FormulaError.forString(cell.value()).getString();
+                default -> {
+                    if (cell.value().isEmpty()) yield "";
+                    ExcelNumberFormat format = numberFormat(cell.styleIndex());
+                    yield formatter.formatRawCellContents(Double.parseDouble(cell.value()),
+                            format.getIdx(), format.getFormat(), date1904);
+                }
+            };
+        } catch (Exception e) {
+            return cell.value();
+        }
+    }
+
+    private static final class UncachedFormulaScan extends DefaultHandler {
+
+        // Thrown to stop parsing at the first match; carries no stack trace.
+        static final class Found extends SAXException {
+            @Override
+            public synchronized Throwable fillInStackTrace() {
+                return this;
+            }
+        }
+
+        private boolean hasFormula;
+        private boolean hasValue;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "c" -> {
+                    hasFormula = false;
+                    hasValue = false;
+                }
+                case "f" -> hasFormula = true;
+                case "v" -> hasValue = true;
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if ("c".equals(localName) && hasFormula && !hasValue) {
+                throw new Found();
+            }
+        }
+    }
+
+    private final class SheetHandler extends DefaultHandler {
+
+        private final SheetRowHandler rowHandler;
+        private final DataFormatter formatter = new DataFormatter();
+        private final List<RawCell> rowCells = new ArrayList<>();
+        private final StringBuilder value = new StringBuilder();
+        private final StringBuilder formula = new StringBuilder();
+
+        private List<String> headers;
+        private boolean skipRemainingRows;
+
+        private int rowIndex;
+        private int nextRowIndex;
+        private int nextColumn;
+
+        private int cellColumn;
+        private String cellType;
+        private int cellStyle;
+        private boolean cellHasFormula;
+        private boolean cellHasValue;
+        private boolean inValue;
+        private boolean inFormula;
+        private boolean inInlineString;
+        private boolean inInlineText;
+        private boolean inPhonetic;
+
+        SheetHandler(SheetRowHandler rowHandler) {
+            this.rowHandler = rowHandler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row" -> {
+                    String ref = attributes.getValue("r");
+                    rowIndex = ref != null ? Integer.parseInt(ref) - 1 : nextRowIndex;
+                    rowCells.clear();
+                    nextColumn = 0;
+                }
+                case "c" -> {
+                    String ref = attributes.getValue("r");
+                    cellColumn = ref != null ? new CellReference(ref).getCol() : nextColumn;
+                    cellType = attributes.getValue("t");
+                    String style = attributes.getValue("s");
+                    cellStyle = style != null ? Integer.parseInt(style) : 0;
+                    cellHasFormula = false;
+                    cellHasValue = false;
+                    value.setLength(0);
+                    formula.setLength(0);
+                }
+                case "v" -> {
+                    inValue = true;
+                    cellHasValue = true;
+                }
+                case "f" -> {
+                    inFormula = true;
+                    cellHasFormula = true;
+                }
+                case "is" -> inInlineString = true;
+                case "rPh" -> inPhonetic = true;
+                case "t" -> inInlineText = inInlineString && !inPhonetic;
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue || inInlineText) {
+                value.append(ch, start, length);
+            } else if (inFormula) {
+                formula.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v" -> inValue = false;
+                case "f" -> inFormula = false;
+                case "is" -> inInlineString = false;
+                case "rPh" -> inPhonetic = false;
+                case "t" -> inInlineText = false;
+                case "c" -> {
+                    rowCells.add(new RawCell(cellColumn, cellType, cellStyle, value.toString(), formula.toString(),
+                            cellHasFormula, cellHasValue));
+                    nextColumn = cellColumn + 1;
+                }
+                case "row" -> {
+                    try {
+                        handleRow();
+                    } catch (Exception e) {
+                        throw new SAXException(e);
+                    }
+                    nextRowIndex = rowIndex + 1;
+                }
+                default -> {
+                }
+            }
+        }
+
+        private void handleRow() throws Exception {
+            if (skipRemainingRows) return;
+
+            if (headers == null) {
+                if (rowCells.isEmpty()) return;
+
+                int lastCellNum = 0;
+                for (RawCell cell : rowCells) lastCellNum = Math.max(lastCellNum, cell.column() + 1);
+
+                String[] headerTexts = new String[lastCellNum];
+                Arrays.fill(headerTexts, "");
+                for (RawCell cell : rowCells) {
+                    headerTexts[cell.column()] = toHeaderText(cell, formatter).trim();
+                }
+                headers = List.of(headerTexts);
+
+                if (headers.stream().allMatch(String::isBlank)) {
+                    skipRemainingRows = true;
+                    return;
+                }
+            }
+
+            // The DOM path always starts reading data at row index 1, whichever row holds the headers.
+            if (rowIndex < 1) return;
+
+            Object[] values = new Object[headers.size()];
+            for (RawCell cell : rowCells) {
+                if (cell.column() < values.length) {
+                    if (cell.hasFormula() && !cell.hasValue()) {
+                        throw new UncachedFormulaException(new CellReference(rowIndex, cell.column()).formatAsString());
+                    }
+                    values[cell.column()] = toCellValue(cell);
+                }
+            }
+
+            Map<String, Object> rowData = new LinkedHashMap<>();
+            boolean nonEmpty = false;
+            for (int j = 0; j < headers.size(); j++) {
+                Object value = values[j];
+                if (value != null && !(value instanceof String && ((String) value).isBlank())) {
+                    nonEmpty = true;
+                }
+                rowData.put(headers.get(j), value);
+            }
+
+            if (nonEmpty) rowHandler.onRow(rowData);
+        }
+    }
+}
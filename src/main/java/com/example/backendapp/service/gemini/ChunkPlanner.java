@@ -0,0 +1,178 @@
+package com.example.backendapp.service.gemini;
+
+import com.example.backendapp.config.GeminiConfig;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a sheet into the fewest chunks of about {@code gemini.chunk-target-tokens}
+ * each, for AI enhancement. Rows are serialized one at a time and packed in order until
+ * the next one would overflow the target, so narrow sheets need few calls and wide ones
+ * get fewer rows per call. A row that is larger than the target on its own is split by
+ * columns into several chunks; {@link #mergeInto} puts its cleaned parts back together.
+ * <p>
+ * A chunk's JSON is {@code {"<sheet name>":[rows...]}}, exactly what serializing
+ * {@code Map.of(sheetName, rows)} would produce, built from the row JSON already measured.
+ * Every row, and every part of a split row, starts with a {@value #ROW_KEY} field holding
+ * its index in the planned rows. The model is asked to keep it, so cleaned rows are put
+ * back by that index rather than by their position in the answer, which shifts as soon
+ * as the model drops, adds or merges a row. A column of the same name is not sent.
+ */
+@Component
+public class ChunkPlanner {
+
+    public static final String ROW_KEY = "__row";
+
+    /**
+     * Rows {@code firstRow} to {@code firstRow + rowCount - 1} of a sheet, or, when
+     * {@code continuesRow} is set, further columns of the row the previous chunk ended with.
+     */
+    public record Chunk(String sheetName, int index, int firstRow, int rowCount,
+                        boolean continuesRow, String json, long estimatedTokens) {}
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final long targetTokens;
+
+    @Autowired
+    public ChunkPlanner(GeminiConfig geminiConfig) {
+        this.targetTokens = Math.max(1, geminiConfig.getChunkTargetTokens());
+    }
+
+    public List<Chunk> plan(String sheetName, List<Map<String, Object>> rows) throws JsonProcessingException {
+        List<Chunk> chunks = new ArrayList<>();
+        String prefix = "{" + objectMapper.writeValueAsString(sheetName) + ":[";
+        StringBuilder json = new StringBuilder(prefix);
+        int firstRow = 0;
+
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, Object> row = indexed(i, rows.get(i));
+            String rowJson = objectMapper.writeValueAsString(row);
+            if (GeminiScheduler.estimateTokens(prefix.length() + rowJson.length() + 2) > targetTokens) {
+                if (i > firstRow) {
+                    chunks.add(chunk(sheetName, chunks.size(), firstRow, i - firstRow, false, json));
+                }
+                splitRow(sheetName, i, row, prefix, chunks);
+                json.setLength(prefix.length());
+                firstRow = i + 1;
+                continue;
+            }
+
+            int separator = i > firstRow ? 1 : 0;
+            if (GeminiScheduler.estimateTokens(json.length() + separator + rowJson.length() + 2) > targetTokens) {
+                chunks.add(chunk(sheetName, chunks.size(), firstRow, i - firstRow, false, json));
+                json.setLength(prefix.length());
+                firstRow = i;
+                separator = 0;
+            }
+            if (separator > 0) {
+                json.append(',');
+            }
+            json.append(rowJson);
+        }
+
+        if (rows.size() > firstRow) {
+            chunks.add(chunk(sheetName, chunks.size(), firstRow, rows.size() - firstRow, false, json));
+        }
+        return chunks;
+    }
+
+    /**
+     * Adds the cleaned rows of one chunk to {@code sheetRows}, keyed by their row index,
+     * merging the parts of a row that was split by columns back into that row. Rows that
+     * do not carry the index of one of the chunk's rows are dropped.
+     */
+    public static void mergeInto(Map<Integer, Map<String, Object>> sheetRows, Chunk chunk,
+                                 List<Map<String, Object>> cleanedRows) {
+        for (Map<String, Object> cleaned : cleanedRows) {
+            int index = rowIndex(chunk, cleaned);
+            if (index >= 0) {
+                sheetRows.merge(index, withoutRowKey(cleaned), (row, part) -> {
+                    Map<String, Object> joined = new LinkedHashMap<>(row);
+                    joined.putAll(part);
+                    return joined;
+                });
+            }
+        }
+    }
+
+    /**
+     * The index a cleaned row of {@code chunk} carries, or -1 when it has none or the index
+     * is not one of the chunk's rows.
+     */
+    public static int rowIndex(Chunk chunk, Map<String, Object> cleaned) {
+        int index = switch (cleaned.get(ROW_KEY)) {
+            case Integer value -> value;
+            case Long value when value == value.intValue() -> value.intValue();
+            case String value when value.matches("\\d{1,9}") -> Integer.parseInt(value);
+            case null, default -> -1;
+        };
+        return index >= chunk.firstRow() && index < chunk.firstRow() + chunk.rowCount() ? index : -1;
+    }
+
+    public static Map<String, Object> withoutRowKey(Map<String, Object> cleaned) {
+        if (!cleaned.containsKey(ROW_KEY)) {
+            return cleaned;
+        }
+        Map<String, Object> row = new LinkedHashMap<>(cleaned);
+        row.remove(ROW_KEY);
+        return row;
+    }
+
+    private static Map<String, Object> indexed(int rowIndex, Map<String, Object> row) {
+        Map<String, Object> indexed = new LinkedHashMap<>();
+        indexed.put(ROW_KEY, rowIndex);
+        for (Map.Entry<String, Object> cell : row.entrySet()) {
+            if (!ROW_KEY.equals(cell.getKey())) {
+                indexed.put(cell.getKey(), cell.getValue());
+            }
+        }
+        return indexed;
+    }
+
+    // Packs the row's cells the same way rows are packed; a single cell over the target is sent on its own.
+    // Each part starts with the row index so the parts can be told apart from neighbouring rows.
+    private void splitRow(String sheetName, int rowIndex, Map<String, Object> row, String prefix,
+                          List<Chunk> chunks) throws JsonProcessingException {
+        Map<String, Object> part = indexed(rowIndex, Map.of());
+        long indexLength = objectMapper.writeValueAsString(part).length();
+        long partLength = indexLength;
+        boolean continuesRow = false;
+
+        for (Map.Entry<String, Object> cell : row.entrySet()) {
+            if (ROW_KEY.equals(cell.getKey())) {
+                continue;
+            }
+            long cellLength = objectMapper.writeValueAsString(Collections.singletonMap(cell.getKey(), cell.getValue())).length();
+            if (part.size() > 1 && GeminiScheduler.estimateTokens(prefix.length() + partLength + cellLength + 2) > targetTokens) {
+                chunks.add(rowPart(sheetName, chunks.size(), rowIndex, continuesRow, prefix, part));
+                part = indexed(rowIndex, Map.of());
+                partLength = indexLength;
+                continuesRow = true;
+            }
+            part.put(cell.getKey(), cell.getValue());
+            partLength += cellLength;
+        }
+        chunks.add(rowPart(sheetName, chunks.size(), rowIndex, continuesRow, prefix, part));
+    }
+
+    private Chunk rowPart(String sheetName, int index, int rowIndex, boolean continuesRow,
+                          String prefix, Map<String, Object> part) throws JsonProcessingException {
+        StringBuilder json = new StringBuilder(prefix).append(objectMapper.writeValueAsString(part));
+        return chunk(sheetName, index, rowIndex, 1, continuesRow, json);
+    }
+
+    private static Chunk chunk(String sheetName, int index, int firstRow, int rowCount,
+                               boolean continuesRow, StringBuilder json) {
+        String chunkJson = json + "]}";
+        return new Chunk(sheetName, index, firstRow, rowCount, continuesRow, chunkJson,
+                GeminiScheduler.estimateTokens(chunkJson));
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.backendapp.service.gemini;
+
+import com.example.backendapp.util.CellValuePatterns;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Profiles a sheet before AI enhancement so that only the cells that need cleaning are
+ * sent to Gemini. Each column gets the kind most of its values have, using the same
+ * detectors as the JSON to Excel writer ({@link CellValuePatterns}). A value is dirty when
+ * it does not have its column's kind, or when its column holds free text; numbers, ISO
+ * dates and date-times, booleans and percentages that match their column are left alone.
+ * Blank values are never dirty. Date-times are also recognised without seconds, which is
+ * how the Excel to JSON readers write date cells that fall on a whole minute.
+ * <p>
+ * The rows sent to the model hold only the dirty columns, and only rows with at least one
+ * dirty value are sent. {@link SheetProjection#merge} puts the cleaned values back into
+ * the original row they came from.
+ */
+@Component
+public class ColumnProfiler {
+
+    private static final Logger log = LoggerFactory.getLogger(ColumnProfiler.class);
+    // LocalDateTime.toString() leaves out zero seconds, so every date-only cell reads "yyyy-MM-ddTHH:mm".
+    private static final Pattern MINUTE_DATETIME = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}");
+
+    public enum Kind {
+        NUMBER, BOOLEAN, DATE, DATETIME, PERCENT, TEXT, OTHER;
+
+        boolean isStructured() {
+            return this != TEXT && this != OTHER;
+        }
+    }
+
+    /**
+     * What a column mostly holds: {@code consistency} is the share of its non-blank values
+     * that are of {@code kind}, and {@code dirtyCells} the number that need cleaning.
+     */
+    public record ColumnProfile(String name, Kind kind, double consistency, double nullRate, int dirtyCells) {
+
+        public boolean isClean() {
+            return dirtyCells == 0;
+        }
+    }
+
+    /**
+     * A sheet reduced to what needs cleaning: {@code projectedRows.get(i)} holds the dirty
+     * columns of row {@code dirtyRows[i]}.
+     */
+    public record SheetProjection(String sheetName, List<Map<String, Object>> rows, List<ColumnProfile> columns,
+                                  int[] dirtyRows, List<Map<String, Object>> projectedRows) {
+
+        /**
+         * Returns row {@code dirtyRows[index]} with the values of its dirty columns taken
+         * from {@code cleaned}. Columns the model left out keep their original value.
+         */
+        public Map<String, Object> merge(int index, Map<String, Object> cleaned) {
+            Map<String, Object> row = new LinkedHashMap<>(rows.get(dirtyRows[index]));
+            for (String column : projectedRows.get(index).keySet()) {
+                if (cleaned.containsKey(column)) {
+                    row.put(column, cleaned.get(column));
+                }
+            }
+            return row;
+        }
+
+        /**
+         * Returns every row of the sheet, with {@code cleanedRows.get(i)} merged into row
+         * {@code dirtyRows[i]}. Rows the model did not send back are kept as they were.
+         */
+        public List<Map<String, Object>> mergeAll(Map<Integer, Map<String, Object>> cleanedRows) {
+            List<Map<String, Object>> merged = new ArrayList<>(rows);
+            for (Map.Entry<Integer, Map<String, Object>> cleaned : cleanedRows.entrySet()) {
+                int index = cleaned.getKey();
+                if (index >= 0 && index < dirtyRows.length) {
+                    merged.set(dirtyRows[index], merge(index, cleaned.getValue()));
+                }
+            }
+            return merged;
+        }
+    }
+
+    private final Counter cellsSent;
+    private final Counter cellsSkipped;
+
+    @Autowired
+    public ColumnProfiler(MeterRegistry meterRegistry) {
+        this.cellsSent = Counter.builder("ai.profile.cells")
+                .description("Cells sent to Gemini for cleaning")
+                .tag("result", "sent")
+                .register(meterRegistry);
+        this.cellsSkipped = Counter.builder("ai.profile.cells")
+                .description("Cells left out of Gemini calls because they were already clean")
+                .tag("result", "skipped")
+                .register(meterRegistry);
+    }
+
+    public SheetProjection project(String sheetName, List<Map<String, Object>> rows) {
+        Set<String> names = new LinkedHashSet<>();
+        for (Map<String, Object> row : rows) {
+            names.addAll(row.keySet());
+        }
+
+        List<ColumnProfile> columns = new ArrayList<>(names.size());
+        for (String name : names) {
+            columns.add(profileColumn(name, rows));
+        }
+
+        Map<String, Kind> dirtyColumns = new LinkedHashMap<>();
+        for (ColumnProfile column : columns) {
+            if (!column.isClean()) {
+                dirtyColumns.put(column.name(), column.kind());
+            }
+        }
+
+        List<Integer> dirtyRows = new ArrayList<>();
+        List<Map<String, Object>> projectedRows = new ArrayList<>();
+        long totalCells = 0;
+        long sentCells = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, Object> row = rows.get(i);
+            totalCells += row.size();
+            if (!hasDirtyValue(row, dirtyColumns)) {
+                continue;
+            }
+            Map<String, Object> projected = new LinkedHashMap<>();
+            for (String column : dirtyColumns.keySet()) {
+                if (row.containsKey(column)) {
+                    projected.put(column, row.get(column));
+                }
+            }
+            dirtyRows.add(i);
+            projectedRows.add(projected);
+            sentCells += projected.size();
+        }
+
+        cellsSent.increment(sentCells);
+        cellsSkipped.increment(totalCells - sentCells);
+        log.debug("Sheet '{}': {} of {} column(s) and {} of {} row(s) need cleaning ({} of {} cells sent)",
+                sheetName, dirtyColumns.size(), columns.size(), dirtyRows.size(), rows.size(), sentCells, totalCells);
+
+        return new SheetProjection(sheetName, rows, columns,
+                dirtyRows.stream().mapToInt(Integer::intValue).toArray(), projectedRows);
+    }
+
+    /**
+     * The kind of a single value, or {@code null} when it is blank.
+     */
+    public static Kind kindOf(Object value, String header) {
+        return switch (value) {
+            case null -> null;
+            case String text -> {
+                String trimmed = text.trim();
+                if (trimmed.isEmpty()) yield null;
+                if (!trimmed.equals(text)) yield Kind.TEXT;
+                if (CellValuePatterns.isDate(trimmed)) yield Kind.DATE;
+                if (CellValuePatterns.isDateTime(trimmed) || MINUTE_DATETIME.matcher(trimmed).matches()) yield Kind.DATETIME;
+                if (CellValuePatterns.isPercent(trimmed)) yield Kind.PERCENT;
+                yield Kind.TEXT;
+            }
+            case Number ignored -> CellValuePatterns.isPercentHeader(header) ? Kind.PERCENT : Kind.NUMBER;
+            case Boolean ignored -> Kind.BOOLEAN;
+            default -> Kind.OTHER;
+        };
+    }
+
+    private static ColumnProfile profileColumn(String name, List<Map<String, Object>> rows) {
+        Map<Kind, Integer> counts = new EnumMap<>(Kind.class);
+        int blanks = 0;
+        for (Map<String, Object> row : rows) {
+            Kind kind = kindOf(row.get(name), name);
+            if (kind == null) {
+                blanks++;
+            } else {
+                counts.merge(kind, 1, Integer::sum);
+            }
+        }
+
+        int values = rows.size() - blanks;
+        if (values == 0) {
+            return new ColumnProfile(name, null, 1.0, rows.isEmpty() ? 0.0 : 1.0, 0);
+        }
+
+        Kind kind = Kind.TEXT;
+        int kindCount = 0;
+        for (Map.Entry<Kind, Integer> count : counts.entrySet()) {
+            if (count.getValue() > kindCount) {
+                kind = count.getKey();
+                kindCount = count.getValue();
+            }
+        }
+        int dirtyCells = kind.isStructured() ? values - kindCount : values;
+        return new ColumnProfile(name, kind, (double) kindCount / values, (double) blanks / rows.size(), dirtyCells);
+    }
+
+    private static boolean hasDirtyValue(Map<String, Object> row, Map<String, Kind> dirtyColumns) {
+        for (Map.Entry<String, Kind> column : dirtyColumns.entrySet()) {
+            Kind kind = kindOf(row.get(column.getKey()), column.getKey());
+            if (kind != null && (!column.getValue().isStructured() || kind != column.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
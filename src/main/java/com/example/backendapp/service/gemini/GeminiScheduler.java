@@ -0,0 +1,360 @@
+package com.example.backendapp.service.gemini;
+
+import com.example.backendapp.config.GeminiConfig;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.EstimationProbe;
+import io.github.bucket4j.Refill;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs every Gemini call the application makes, within three limits:
+ * <ul>
+ *   <li>a budget of requests and estimated prompt tokens per minute
+ *       ({@code gemini.scheduler.requests-per-minute} and {@code tokens-per-minute});</li>
+ *   <li>an adaptive number of calls in flight, between {@code gemini.scheduler.min-in-flight}
+ *       and {@code gemini.max-in-flight}. It is halved when Gemini answers 429 or 503,
+ *       shrunk when calls get slower than {@code gemini.scheduler.latency-threshold}, and
+ *       grows by one after a full round of fast successful calls;</li>
+ *   <li>a priority queue, so calls of small interactive requests go ahead of queued
+ *       calls of large batch jobs. Calls of the same priority run in arrival order.</li>
+ * </ul>
+ * Calls waiting for a slot or for budget do not hold a thread, and a call cancelled while
+ * waiting gives up its place. Throttled and timed-out calls are retried with jittered
+ * exponential backoff; each retry queues again, keeping its original place in line.
+ * Streamed calls hold their slot until the stream ends.
+ */
+@Component
+public class GeminiScheduler {
+
+    public enum Priority { INTERACTIVE, BATCH }
+
+    private enum State { WAITING, GRANTED, DONE }
+
+    private static final Logger log = LoggerFactory.getLogger(GeminiScheduler.class);
+
+    private static final double THROTTLE_DECREASE = 0.5;
+    private static final double LATENCY_DECREASE = 0.9;
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private static final Comparator<Waiter> ORDER = Comparator
+            .comparing((Waiter waiter) -> waiter.priority)
+            .thenComparingLong(waiter -> waiter.sequence);
+
+    private final GeminiConfig.Scheduler config;
+    private final double minLimit;
+    private final double maxLimit;
+    private final long tokenCapacity;
+    private final Bucket requestBudget;
+    private final Bucket tokenBudget;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(ORDER);
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Counter retries;
+    private final Counter throttled;
+    private final Timer latency;
+    private final Map<Priority, Timer> queueWait = new EnumMap<>(Priority.class);
+
+    private double limit;
+    private int inFlight;
+    private int fastSuccesses;
+    private long lastDecrease;
+    private boolean budgetDrainScheduled;
+
+    @Autowired
+    public GeminiScheduler(GeminiConfig geminiConfig, MeterRegistry meterRegistry) {
+        this.config = geminiConfig.getScheduler();
+        this.maxLimit = Math.max(1, geminiConfig.getMaxInFlight());
+        this.minLimit = Math.min(maxLimit, Math.max(1, config.getMinInFlight()));
+        this.limit = maxLimit;
+        this.lastDecrease = System.nanoTime() - config.getInitialBackoff().toNanos();
+
+        long requestsPerMinute = Math.max(1, config.getRequestsPerMinute());
+        this.tokenCapacity = Math.max(1, config.getTokensPerMinute());
+        this.requestBudget = perMinute(requestsPerMinute);
+        this.tokenBudget = perMinute(tokenCapacity);
+
+        Gauge.builder("gemini.calls.in_flight", this, GeminiScheduler::getInFlight)
+                .description("Gemini calls currently running")
+                .register(meterRegistry);
+        Gauge.builder("gemini.calls.queued", this, GeminiScheduler::getQueued)
+                .description("Gemini calls waiting for a slot or for budget")
+                .register(meterRegistry);
+        Gauge.builder("gemini.calls.limit", this, GeminiScheduler::getLimit)
+                .description("Current adaptive limit of Gemini calls in flight")
+                .register(meterRegistry);
+        this.retries = Counter.builder("gemini.calls.retries")
+                .description("Gemini calls retried after a 429, 503 or timeout")
+                .register(meterRegistry);
+        this.throttled = Counter.builder("gemini.calls.throttled")
+                .description("Gemini calls answered with 429 or 503")
+                .register(meterRegistry);
+        this.latency = Timer.builder("gemini.calls.latency")
+                .description("Time to the answer, or to the first part of a streamed answer, of single Gemini call attempts")
+                .register(meterRegistry);
+        for (Priority priority : Priority.values()) {
+            queueWait.put(priority, Timer.builder("gemini.calls.wait")
+                    .description("Time Gemini calls spent queued for a slot or budget")
+                    .tag("priority", priority.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Rough prompt size in tokens, for the tokens-per-minute budget.
+     */
+    public static long estimateTokens(String prompt) {
+        return estimateTokens(prompt.length());
+    }
+
+    public static long estimateTokens(long chars) {
+        return (chars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Requests needing at most {@code gemini.scheduler.interactive-max-calls} Gemini calls
+     * are treated as interactive, larger ones as batch jobs.
+     */
+    public Priority priorityFor(int calls) {
+        return calls <= config.getInteractiveMaxCalls() ? Priority.INTERACTIVE : Priority.BATCH;
+    }
+
+    /**
+     * Subscribes to {@code call} once the budget allows it and a slot is free, and frees
+     * the slot when it terminates or is cancelled, before the result is passed on.
+     * {@code call} is subscribed to again for each retry, so it must be cold.
+     */
+    public <T> Mono<T> schedule(Mono<T> call, Priority priority, long estimatedTokens) {
+        long tokens = Math.min(tokenCapacity, Math.max(1, estimatedTokens));
+        return Mono.defer(() -> {
+            long position = sequence.getAndIncrement();
+            return Mono.defer(() -> attempt(call.flux(), new Waiter(priority, tokens, position)).singleOrEmpty())
+                    .retryWhen(retry(GeminiScheduler::isRetryable));
+        });
+    }
+
+    /**
+     * Like {@link #schedule(Mono, Priority, long)} for a streamed call, which holds its slot
+     * until the stream ends. Only the time to the first element counts as its latency, and
+     * a call is only retried if it failed before emitting anything.
+     */
+    public <T> Flux<T> scheduleStream(Flux<T> call, Priority priority, long estimatedTokens) {
+        long tokens = Math.min(tokenCapacity, Math.max(1, estimatedTokens));
+        return Flux.defer(() -> {
+            long position = sequence.getAndIncrement();
+            AtomicBoolean emitted = new AtomicBoolean();
+            return Flux.defer(() -> attempt(call, new Waiter(priority, tokens, position)))
+                    .doOnNext(element -> emitted.set(true))
+                    .retryWhen(retry(error -> !emitted.get() && isRetryable(error)));
+        });
+    }
+
+    private Retry retry(Predicate<Throwable> retryable) {
+        return Retry.backoff(config.getMaxRetries(), config.getInitialBackoff())
+                .maxBackoff(config.getMaxBackoff())
+                .jitter(0.5)
+                .filter(retryable)
+                .doBeforeRetry(signal -> {
+                    retries.increment();
+                    log.warn("Retrying Gemini call (attempt {}): {}",
+                            signal.totalRetries() + 2, signal.failure().toString());
+                })
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    public synchronized double getLimit() {
+        return Math.floor(limit);
+    }
+
+    private <T> Flux<T> attempt(Flux<T> call, Waiter waiter) {
+        return Mono.<Void>create(waiter::attach)
+                .thenMany(call)
+                .doOnNext(element -> waiter.firstElement())
+                .doOnComplete(() -> finish(waiter, true, null))
+                .doOnError(error -> finish(waiter, true, error))
+                .doOnCancel(() -> finish(waiter, false, null));
+    }
+
+    private void finish(Waiter waiter, boolean completed, Throwable error) {
+        if (waiter.state.compareAndSet(State.GRANTED, State.DONE)) {
+            long elapsed = (waiter.firstElementAt != 0 ? waiter.firstElementAt : System.nanoTime()) - waiter.grantedAt;
+            latency.record(elapsed, TimeUnit.NANOSECONDS);
+            synchronized (this) {
+                inFlight--;
+                if (completed) {
+                    adapt(error, elapsed);
+                }
+            }
+            drain();
+        } else if (waiter.state.compareAndSet(State.WAITING, State.DONE)) {
+            synchronized (this) {
+                waiters.remove(waiter);
+            }
+        }
+    }
+
+    // Additive increase after a full round of fast successes, multiplicative decrease on
+    // throttling or slow calls, at most once per initial backoff so one burst counts once.
+    private void adapt(Throwable error, long elapsed) {
+        if (isThrottling(error)) {
+            throttled.increment();
+            decrease(THROTTLE_DECREASE, "throttled");
+        } else if (error instanceof TimeoutException
+                || (error == null && elapsed > config.getLatencyThreshold().toNanos())) {
+            decrease(LATENCY_DECREASE, "slow");
+        } else if (error == null && ++fastSuccesses >= (int) limit) {
+            fastSuccesses = 0;
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    private void decrease(double factor, String reason) {
+        long now = System.nanoTime();
+        if (now - lastDecrease < config.getInitialBackoff().toNanos()) {
+            return;
+        }
+        lastDecrease = now;
+        fastSuccesses = 0;
+        double previous = limit;
+        limit = Math.max(minLimit, limit * factor);
+        if ((int) limit != (int) previous) {
+            log.warn("Gemini calls {}, lowering concurrency limit from {} to {}", reason, (int) previous, (int) limit);
+        }
+    }
+
+    private void drain() {
+        List<Waiter> granted = new ArrayList<>();
+        synchronized (this) {
+            while (inFlight < (int) limit && !waiters.isEmpty()) {
+                Waiter next = waiters.peek();
+                long nanosToWait = reserveBudget(next.tokens);
+                if (nanosToWait > 0) {
+                    scheduleDrain(nanosToWait);
+                    break;
+                }
+                waiters.poll();
+                if (next.state.compareAndSet(State.WAITING, State.GRANTED)) {
+                    inFlight++;
+                    next.grantedAt = System.nanoTime();
+                    granted.add(next);
+                } else {
+                    requestBudget.addTokens(1);
+                    tokenBudget.addTokens(next.tokens);
+                }
+            }
+        }
+        for (Waiter waiter : granted) {
+            queueWait.get(waiter.priority).record(waiter.grantedAt - waiter.queuedAt, TimeUnit.NANOSECONDS);
+            waiter.sink.success();
+        }
+    }
+
+    // Called with the lock held, so the two buckets are checked and consumed together.
+    private long reserveBudget(long tokens) {
+        EstimationProbe request = requestBudget.estimateAbilityToConsume(1);
+        EstimationProbe token = tokenBudget.estimateAbilityToConsume(tokens);
+        if (request.canBeConsumed() && token.canBeConsumed()) {
+            requestBudget.tryConsume(1);
+            tokenBudget.tryConsume(tokens);
+            return 0;
+        }
+        return Math.max(request.getNanosToWaitForRefill(), token.getNanosToWaitForRefill());
+    }
+
+    private void scheduleDrain(long nanosToWait) {
+        if (budgetDrainScheduled) {
+            return;
+        }
+        budgetDrainScheduled = true;
+        Schedulers.parallel().schedule(() -> {
+            synchronized (this) {
+                budgetDrainScheduled = false;
+            }
+            drain();
+        }, nanosToWait, TimeUnit.NANOSECONDS);
+    }
+
+    private static Bucket perMinute(long capacity) {
+        return Bucket.builder()
+                .addLimit(Bandwidth.classic(capacity, Refill.greedy(capacity, Duration.ofMinutes(1))))
+                .build();
+    }
+
+    private static boolean isThrottling(Throwable error) {
+        return error instanceof WebClientResponseException ex
+                && (ex.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()
+                || ex.getStatusCode().value() == HttpStatus.SERVICE_UNAVAILABLE.value());
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        return isThrottling(error) || error instanceof TimeoutException;
+    }
+
+    private final class Waiter {
+
+        private final Priority priority;
+        private final long tokens;
+        private final long sequence;
+        private final long queuedAt = System.nanoTime();
+        private final AtomicReference<State> state = new AtomicReference<>(State.WAITING);
+        private MonoSink<Void> sink;
+        private long grantedAt;
+        private long firstElementAt;
+
+        Waiter(Priority priority, long tokens, long sequence) {
+            this.priority = priority;
+            this.tokens = tokens;
+            this.sequence = sequence;
+        }
+
+        void attach(MonoSink<Void> sink) {
+            this.sink = sink;
+            synchronized (GeminiScheduler.this) {
+                waiters.add(this);
+            }
+            drain();
+        }
+
+        void firstElement() {
+            if (firstElementAt == 0) {
+                firstElementAt = System.nanoTime();
+            }
+        }
+    }
+}
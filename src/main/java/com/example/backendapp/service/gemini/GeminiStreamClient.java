@@ -0,0 +1,123 @@
+package com.example.backendapp.service.gemini;
+
+import com.example.backendapp.config.GeminiConfig;
+import com.example.backendapp.util.GeminiResponseUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Calls Gemini's {@code streamGenerateContent} endpoint (as server-sent events) through
+ * the {@link GeminiScheduler}. The answer is passed on piece by piece as the model
+ * writes it, and a call fails once no new piece has arrived for
+ * {@code gemini.stream-idle-timeout}, however long the whole answer takes.
+ * <p>
+ * Every attempt, retries included, is timed as {@code gemini.calls.duration}, from the
+ * moment the scheduler lets it run until the answer has ended, tagged with its
+ * {@code outcome} and HTTP {@code status}.
+ */
+@Component
+public class GeminiStreamClient {
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> EVENT_TYPE =
+            new ParameterizedTypeReference<>() {};
+
+    private final WebClient webClient;
+    private final GeminiConfig geminiConfig;
+    private final GeminiScheduler geminiScheduler;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public GeminiStreamClient(@Qualifier("geminiWebClient") WebClient webClient,
+                              GeminiConfig geminiConfig,
+                              GeminiScheduler geminiScheduler,
+                              MeterRegistry meterRegistry) {
+        this.webClient = webClient;
+        this.geminiConfig = geminiConfig;
+        this.geminiScheduler = geminiScheduler;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Streams the text of the answer to {@code requestBody} as it is generated.
+     */
+    public Flux<String> streamText(Map<String, Object> requestBody, GeminiScheduler.Priority priority, long estimatedTokens) {
+        Flux<String> call = webClient.post()
+                .uri(uriBuilder -> uriBuilder
+                        .path(geminiConfig.buildStreamModelPath())
+                        .queryParam("alt", "sse")
+                        .queryParam("key", geminiConfig.getApiKey())
+                        .build())
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .bodyValue(requestBody)
+                .retrieve()
+                .bodyToFlux(EVENT_TYPE)
+                .timeout(geminiConfig.getStreamIdleTimeout())
+                .mapNotNull(ServerSentEvent::data)
+                .map(GeminiResponseUtil::extractTextFromStreamEvent)
+                .filter(text -> !text.isEmpty());
+
+        return geminiScheduler.scheduleStream(timed(call), priority, estimatedTokens);
+    }
+
+    private <T> Flux<T> timed(Flux<T> call) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return call
+                    .doOnComplete(() -> sample.stop(callTimer("success", "200")))
+                    .doOnError(error -> sample.stop(callTimer(outcomeOf(error), statusOf(error))))
+                    .doOnCancel(() -> sample.stop(callTimer("cancelled", "none")));
+        });
+    }
+
+    private Timer callTimer(String outcome, String status) {
+        return Timer.builder("gemini.calls.duration")
+                .description("Duration of single Gemini call attempts")
+                .tag("outcome", outcome)
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private static String outcomeOf(Throwable error) {
+        if (error instanceof WebClientResponseException) {
+            return "http_error";
+        }
+        return error instanceof TimeoutException ? "timeout" : "error";
+    }
+
+    private static String statusOf(Throwable error) {
+        return error instanceof WebClientResponseException e
+                ? String.valueOf(e.getStatusCode().value())
+                : "none";
+    }
+
+    /**
+     * Streams the rows of a JSON answer for {@code sheetName}, each one as soon as it is
+     * complete. Fails if the answer is empty or does not end as valid JSON.
+     */
+    public Flux<Map<String, Object>> streamRows(Map<String, Object> requestBody, String sheetName,
+                                                GeminiScheduler.Priority priority, long estimatedTokens) {
+        return Flux.defer(() -> {
+            IncrementalRowParser parser = new IncrementalRowParser(sheetName);
+            return streamText(requestBody, priority, estimatedTokens)
+                    .publishOn(Schedulers.boundedElastic())
+                    .concatMapIterable(parser::feed)
+                    .concatWith(Mono.fromRunnable(parser::finish));
+        });
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.backendapp.service.gemini;
+
+import com.example.backendapp.exception.AIProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the JSON text of a streamed Gemini answer as it arrives and hands back each row
+ * as soon as its closing brace has been read. Rows are the objects of a top-level array,
+ * or of the array under the sheet's name in a top-level object. Anything before the JSON
+ * starts, such as a code fence, and anything after it ends is ignored.
+ */
+final class IncrementalRowParser {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> ROW_TYPE = new TypeReference<>() {};
+
+    private final String sheetName;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    private boolean started;
+    private boolean finished;
+    private int depth;
+    private String field;
+    private int rowsDepth;
+    private boolean rowsClosed;
+    private TokenBuffer row;
+    private int rowDepth;
+
+    IncrementalRowParser(String sheetName) {
+        this.sheetName = sheetName;
+        try {
+            this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new AIProcessingException("Failed to create JSON parser", e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Feeds the next piece of text and returns the rows it completed.
+     */
+    List<Map<String, Object>> feed(String text) {
+        if (finished) {
+            return List.of();
+        }
+        if (!started) {
+            int start = indexOfJsonStart(text);
+            if (start < 0) {
+                return List.of();
+            }
+            started = true;
+            text = text.substring(start);
+        }
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            feeder.feedInput(bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new AIProcessingException("Gemini returned invalid JSON: " + e.getMessage(), e);
+        }
+        return readAvailable();
+    }
+
+    /**
+     * Checks that the answer held one complete JSON value once the stream has ended.
+     */
+    void finish() {
+        if (!started) {
+            throw new AIProcessingException("Gemini returned empty response.");
+        }
+        if (!finished) {
+            feeder.endOfInput();
+            readAvailable();
+        }
+        if (!finished) {
+            throw new AIProcessingException("Gemini response ended before its JSON was complete.");
+        }
+    }
+
+    private List<Map<String, Object>> readAvailable() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        try {
+            JsonToken token;
+            while (!finished && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                handle(token, rows);
+            }
+        } catch (IOException e) {
+            throw new AIProcessingException("Gemini returned invalid JSON: " + e.getMessage(), e);
+        }
+        return rows;
+    }
+
+    private void handle(JsonToken token, List<Map<String, Object>> rows) throws IOException {
+        if (row != null) {
+            row.copyCurrentEvent(parser);
+            if (token.isStructStart()) {
+                rowDepth++;
+            } else if (token.isStructEnd() && --rowDepth == 0) {
+                rows.add(objectMapper.readValue(row.asParser(), ROW_TYPE));
+                row = null;
+            }
+            return;
+        }
+
+        if (token == JsonToken.FIELD_NAME) {
+            if (depth == 1) {
+                field = parser.currentName();
+            }
+        } else if (token == JsonToken.START_OBJECT && rowsDepth > 0 && depth == rowsDepth) {
+            row = new TokenBuffer(parser);
+            row.copyCurrentEvent(parser);
+            rowDepth = 1;
+        } else if (token.isStructStart()) {
+            depth++;
+            if (token == JsonToken.START_ARRAY && rowsDepth == 0 && !rowsClosed
+                    && (depth == 1 || (depth == 2 && sheetName.equals(field)))) {
+                rowsDepth = depth;
+            }
+        } else if (token.isStructEnd()) {
+            if (depth == rowsDepth) {
+                rowsDepth = 0;
+                rowsClosed = true;
+            }
+            if (--depth == 0) {
+                finished = true;
+            }
+        }
+    }
+
+    private static int indexOfJsonStart(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '{' || c == '[') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -3,7 +3,15 @@ package com.example.backendapp.service.jsonexcel;
 import com.example.backendapp.cache.AiResponseCache;
 import com.example.backendapp.config.GeminiConfig;
 import com.example.backendapp.exception.AIProcessingException;
-import com.example.backendapp.util.GeminiResponseUtil;
+import com.example.backendapp.metrics.PipelineMetrics;
+import com.example.backendapp.metrics.PipelineMetrics.Stage;
+import com.example.backendapp.service.gemini.ChunkPlanner;
+import com.example.backendapp.service.gemini.ChunkPlanner.Chunk;
+import com.example.backendapp.service.gemini.ColumnProfiler;
+import com.example.backendapp.service.gemini.ColumnProfiler.SheetProjection;
+import com.example.backendapp.service.gemini.GeminiScheduler;
+import com.example.backendapp.service.gemini.GeminiStreamClient;
+import com.example.backendapp.util.CacheKeyUtil;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.poi.ss.usermodel.*;
@@ -12,9 +20,7 @@ import org.apache.poi.ss.util.WorkbookUtil;
 import org.apache.poi.xssf.streaming.SXSSFSheet;
 import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
@@ -22,58 +28,111 @@ import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
 import java.io.ByteArrayOutputStream;
-import java.security.MessageDigest;
-import java.time.Duration;
+import java.io.OutputStream;
 import java.util.*;
 
 @Service
 public class AiJsonToExcelService {
 
-    private final WebClient webClient;
+    // Part of every chunk cache key: bump it whenever PROMPT changes so old answers are not reused.
+    // Prefixed so chunks never share answers with AiExcelToJsonService, whose prompt differs.
+    private static final String PROMPT_VERSION = "json-to-excel-2";
+    private static final String PROMPT = """
+            You are an AI assistant. Clean and standardize the following sheet's JSON.
+            Fix typos, inconsistent formatting, and ensure data consistency.
+            Keep the "%s" field of every row exactly as it is.
+            Wrap the cleaned result using the original sheet name as key. Return ONLY valid JSON.
+
+            Input:
+            """.formatted(ChunkPlanner.ROW_KEY);
+
+    private final GeminiStreamClient geminiStreamClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final AiResponseCache aiResponseCache;
     private final GeminiConfig geminiConfig;
+    private final GeminiScheduler geminiScheduler;
+    private final ChunkPlanner chunkPlanner;
+    private final ColumnProfiler columnProfiler;
+
+    private record SheetPlan(SheetProjection projection, List<Chunk> chunks) {}
 
     @Autowired
-    public AiJsonToExcelService(WebClient.Builder webClientBuilder,
+    public AiJsonToExcelService(GeminiStreamClient geminiStreamClient,
                                 AiResponseCache aiResponseCache,
-                                GeminiConfig geminiConfig) {
-        this.webClient = webClientBuilder.baseUrl("https://generativelanguage.googleapis.com").build();
+                                GeminiConfig geminiConfig,
+                                GeminiScheduler geminiScheduler,
+                                ChunkPlanner chunkPlanner,
+                                ColumnProfiler columnProfiler) {
+        this.geminiStreamClient = geminiStreamClient;
         this.aiResponseCache = aiResponseCache;
         this.geminiConfig = geminiConfig;
+        this.geminiScheduler = geminiScheduler;
+        this.chunkPlanner = chunkPlanner;
+        this.columnProfiler = columnProfiler;
     }
 
     public Mono<byte[]> enhance(Map<String, List<Map<String, Object>>> originalJson) {
+        return enhance(originalJson, PipelineMetrics.UNRECORDED);
+    }
+
+    public Mono<byte[]> enhance(Map<String, List<Map<String, Object>>> originalJson, PipelineMetrics.Recorder metrics) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return enhanceSheets(originalJson)
+                    .doOnNext(enhancedMap -> metrics.record(Stage.AI_ENHANCE, start));
+        }).flatMap(enhancedMap -> generateExcelAsync(originalJson, enhancedMap, metrics));
+    }
+
+    public Mono<Map<String, List<Map<String, Object>>>> enhanceSheets(Map<String, List<Map<String, Object>>> originalJson) {
         int totalSheets = originalJson.size();
         int dynamicConcurrency = Math.min(5, Math.max(1, totalSheets / 2));
 
-        return Flux.fromIterable(originalJson.entrySet())
-                .flatMapSequential(entry -> enhanceSheet(entry.getKey(), entry.getValue()), dynamicConcurrency)
-                .collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new)
-                .flatMap(enhancedMap -> generateExcelAsync(originalJson, enhancedMap));
+        return Mono.fromCallable(() -> planChunks(originalJson))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(plan -> {
+                    int totalChunks = plan.values().stream().mapToInt(sheet -> sheet.chunks().size()).sum();
+                    GeminiScheduler.Priority priority = geminiScheduler.priorityFor(totalChunks);
+
+                    return Flux.fromIterable(plan.entrySet())
+                            .flatMapSequential(entry -> enhanceSheet(entry.getKey(), entry.getValue(), priority), dynamicConcurrency)
+                            .collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new);
+                });
     }
 
-    private Mono<Tuple2<String, List<Map<String, Object>>>> enhanceSheet(String sheetName, List<Map<String, Object>> rows) {
-        if (rows.isEmpty()) {
-            return Mono.just(Tuples.of(sheetName, Collections.emptyList()));
+    // Only the cells the profiler finds dirty are chunked and sent; the rest are merged back untouched.
+    private Map<String, SheetPlan> planChunks(Map<String, List<Map<String, Object>>> originalJson) throws Exception {
+        Map<String, SheetPlan> plan = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Map<String, Object>>> entry : originalJson.entrySet()) {
+            SheetProjection projection = columnProfiler.project(entry.getKey(), entry.getValue());
+            plan.put(entry.getKey(), new SheetPlan(projection, chunkPlanner.plan(entry.getKey(), projection.projectedRows())));
         }
+        return plan;
+    }
 
-        List<List<Map<String, Object>>> chunks = splitIntoChunksAdaptive(rows);
+    private Mono<Tuple2<String, List<Map<String, Object>>>> enhanceSheet(String sheetName, SheetPlan sheetPlan,
+                                                                         GeminiScheduler.Priority priority) {
+        List<Chunk> chunks = sheetPlan.chunks();
+        if (chunks.isEmpty()) {
+            return Mono.just(Tuples.of(sheetName, sheetPlan.projection().rows()));
+        }
 
+        // Sequential so each answer lines up with the chunk it was asked for.
         return Flux.fromIterable(chunks)
-                .flatMap(chunk -> enhanceChunk(sheetName, chunk), 3)
+                .flatMapSequential(chunk -> enhanceChunk(chunk, priority), 3)
                 .collectList()
                 .flatMap(chunksList -> Mono.fromCallable(() -> {
-                    List<Map<String, Object>> merged = new ArrayList<>();
-                    for (List<Map<String, Object>> chunk : chunksList) merged.addAll(chunk);
-                    return Tuples.of(sheetName, merged);
+                    Map<Integer, Map<String, Object>> cleaned = new HashMap<>();
+                    for (int i = 0; i < chunks.size(); i++) {
+                        ChunkPlanner.mergeInto(cleaned, chunks.get(i), chunksList.get(i));
+                    }
+                    return Tuples.of(sheetName, sheetPlan.projection().mergeAll(cleaned));
                 }).subscribeOn(Schedulers.boundedElastic()));
     }
 
-    private Mono<List<Map<String, Object>>> enhanceChunk(String sheetName, List<Map<String, Object>> chunk) {
+    private Mono<List<Map<String, Object>>> enhanceChunk(Chunk chunk, GeminiScheduler.Priority priority) {
         try {
-            String chunkJson = objectMapper.writeValueAsString(Map.of(sheetName, chunk));
-            String sheetCacheKey = generateHash(sheetName + chunkJson);
+            String sheetName = chunk.sheetName();
+            String sheetCacheKey = CacheKeyUtil.generateAiChunkKey(sheetName, chunk.json(), PROMPT_VERSION, geminiConfig.getModel());
             String cached = aiResponseCache.getCachedResponse(sheetCacheKey);
             if (cached != null) {
                 return Mono.fromCallable(() -> objectMapper.readValue(
@@ -81,32 +140,13 @@ public class AiJsonToExcelService {
                 ).subscribeOn(Schedulers.boundedElastic());
             }
 
-            Map<String, Object> requestBody = buildGeminiRequestBody(sheetName, chunk);
-
-            return webClient.post()
-                    .uri(uriBuilder -> uriBuilder
-                            .path(geminiConfig.buildModelPath())
-                            .queryParam("key", geminiConfig.getApiKey())
-                            .build())
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .timeout(Duration.ofSeconds(90))
-                    .map(GeminiResponseUtil::extractTextFromGeminiResponse)
-                    .flatMap(response -> Mono.fromCallable(() -> {
-                        try {
-                            Map<String, List<Map<String, Object>>> parsed =
-                                    objectMapper.readValue(response, new TypeReference<>() {});
-                            List<Map<String, Object>> result = parsed.getOrDefault(sheetName, Collections.emptyList());
-                            aiResponseCache.cacheResponse(sheetCacheKey, objectMapper.writeValueAsString(result));
-                            return result;
-                        } catch (Exception ex1) {
-                            List<Map<String, Object>> parsedArray =
-                                    objectMapper.readValue(response, new TypeReference<>() {});
-                            aiResponseCache.cacheResponse(sheetCacheKey, objectMapper.writeValueAsString(parsedArray));
-                            return parsedArray;
-                        }
+            Map<String, Object> requestBody = buildGeminiRequestBody(chunk.json());
+
+            return geminiStreamClient.streamRows(requestBody, sheetName, priority, chunk.estimatedTokens())
+                    .collectList()
+                    .flatMap(result -> Mono.fromCallable(() -> {
+                        aiResponseCache.cacheResponse(sheetCacheKey, objectMapper.writeValueAsString(result));
+                        return result;
                     }).subscribeOn(Schedulers.boundedElastic()));
 
         } catch (Exception e) {
@@ -114,16 +154,8 @@ public class AiJsonToExcelService {
         }
     }
 
-    private Map<String, Object> buildGeminiRequestBody(String sheetName, List<Map<String, Object>> chunk) throws Exception {
-        String chunkJson = objectMapper.writeValueAsString(Map.of(sheetName, chunk));
-
-        String prompt = """
-            You are an AI assistant. Clean and standardize the following sheet's JSON.
-            Fix typos, inconsistent formatting, and ensure data consistency.
-            Wrap the cleaned result using the original sheet name as key. Return ONLY valid JSON.
-
-            Input:
-            """ + chunkJson;
+    private Map<String, Object> buildGeminiRequestBody(String chunkJson) {
+        String prompt = PROMPT + chunkJson;
 
         return Map.of(
                 "contents", List.of(Map.of("parts", List.of(Map.of("text", prompt)))),
@@ -132,14 +164,33 @@ public class AiJsonToExcelService {
     }
 
     private Mono<byte[]> generateExcelAsync(Map<String, List<Map<String, Object>>> original,
-                                            Map<String, List<Map<String, Object>>> enhanced) {
-        return Mono.fromCallable(() -> generateHighlightedExcel(original, enhanced))
+                                            Map<String, List<Map<String, Object>>> enhanced,
+                                            PipelineMetrics.Recorder metrics) {
+        return Mono.fromCallable(() -> generateHighlightedExcel(original, enhanced, metrics))
                 .subscribeOn(Schedulers.boundedElastic());
     }
 
     private byte[] generateHighlightedExcel(Map<String, List<Map<String, Object>>> original,
-                                            Map<String, List<Map<String, Object>>> enhanced) throws Exception {
-        try (SXSSFWorkbook workbook = new SXSSFWorkbook(100); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+                                            Map<String, List<Map<String, Object>>> enhanced,
+                                            PipelineMetrics.Recorder metrics) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeHighlightedExcel(original, enhanced, out, metrics);
+        return out.toByteArray();
+    }
+
+    public void writeHighlightedExcel(Map<String, List<Map<String, Object>>> original,
+                                      Map<String, List<Map<String, Object>>> enhanced,
+                                      OutputStream out) throws Exception {
+        writeHighlightedExcel(original, enhanced, out, PipelineMetrics.UNRECORDED);
+    }
+
+    public void writeHighlightedExcel(Map<String, List<Map<String, Object>>> original,
+                                      Map<String, List<Map<String, Object>>> enhanced,
+                                      OutputStream out, PipelineMetrics.Recorder metrics) throws Exception {
+        long start = System.nanoTime();
+        long rows = 0;
+        long cells = 0;
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(100)) {
             workbook.setCompressTempFiles(true);
             CreationHelper factory = workbook.getCreationHelper();
             CellStyle headerStyle = createBoldStyle(workbook);
@@ -157,6 +208,8 @@ public class AiJsonToExcelService {
                 if (enhancedRows.isEmpty()) continue;
 
                 List<String> headers = new ArrayList<>(enhancedRows.getFirst().keySet());
+                rows += enhancedRows.size();
+                cells += (long) enhancedRows.size() * headers.size();
 
                 Row headerRow = sheet.createRow(0);
                 for (int col = 0; col < headers.size(); col++) {
@@ -198,9 +251,11 @@ public class AiJsonToExcelService {
                 }
 
                 sheet.createFreezePane(0, 1);
+                long autosizeStart = System.nanoTime();
                 for (int col = 0; col < headers.size(); col++) {
                     sheet.autoSizeColumn(col);
                 }
+                metrics.record(Stage.AUTOSIZE, autosizeStart);
 
                 if (hasChanges) {
                     int legendRowNum = sheet.getLastRowNum() + 2;
@@ -217,19 +272,10 @@ public class AiJsonToExcelService {
             }
 
             workbook.write(out);
-            return out.toByteArray();
-        }
-    }
-
-    private List<List<Map<String, Object>>> splitIntoChunksAdaptive(List<Map<String, Object>> data) {
-        int rowCount = data.size();
-        int adaptiveChunkSize = rowCount <= 200 ? rowCount : (rowCount <= 1000 ? 200 : 500);
-
-        List<List<Map<String, Object>>> chunks = new ArrayList<>();
-        for (int i = 0; i < data.size(); i += adaptiveChunkSize) {
-            chunks.add(data.subList(i, Math.min(data.size(), i + adaptiveChunkSize)));
         }
-        return chunks;
+        metrics.record(Stage.EXCEL_WRITE, start);
+        metrics.rows(Stage.EXCEL_WRITE, rows);
+        metrics.cells(Stage.EXCEL_WRITE, cells);
     }
 
     private void applyCellValue(Cell cell, Object value) {
@@ -291,18 +337,4 @@ public class AiJsonToExcelService {
         style.setWrapText(true);
         return style;
     }
-
-    private String generateHash(String input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] encodedHash = digest.digest(input.getBytes());
-            StringBuilder hex = new StringBuilder();
-            for (byte b : encodedHash) {
-                hex.append(String.format("%02x", b));
-            }
-            return hex.toString();
-        } catch (Exception e) {
-            return String.valueOf(input.hashCode());
-        }
-    }
 }
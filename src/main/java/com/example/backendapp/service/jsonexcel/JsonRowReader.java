@@ -0,0 +1,156 @@
+package com.example.backendapp.service.jsonexcel;
+
+import com.example.backendapp.exception.InvalidInputException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Walks a JSON document with a token parser and hands every row to a {@link RowHandler}
+ * as soon as it has been read, so no tree of the whole document is built. Rows of one
+ * sheet always arrive together, and sheets without rows produce no callbacks.
+ */
+final class JsonRowReader {
+
+    enum Layout {
+        /** {@code { "Sheet": [ {...}, ... ], ... }}, the format of uploaded files. */
+        SHEETS,
+
+        /** Any of the shapes accepted by {@code /json-to-excel/raw}, see {@link #readFlexible}. */
+        FLEXIBLE
+    }
+
+    @FunctionalInterface
+    interface RowHandler {
+        void onRow(String sheetName, Map<String, Object> row) throws IOException;
+    }
+
+    private static final String DEFAULT_SHEET = "Sheet1";
+    private static final TypeReference<Map<String, Object>> ROW_TYPE = new TypeReference<>() {};
+
+    private JsonRowReader() {
+    }
+
+    static void read(JsonParser parser, Layout layout, RowHandler handler) throws IOException {
+        if (layout == Layout.SHEETS) {
+            readSheets(parser, handler);
+        } else {
+            readFlexible(parser, handler);
+        }
+    }
+
+    private static void readSheets(JsonParser parser, RowHandler handler) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("JSON must be an object mapping sheet names to arrays of rows.");
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String sheetName = parser.currentName();
+            parser.nextToken();
+            readSheetRows(parser, sheetName, handler);
+        }
+    }
+
+    /**
+     * Recognises the five shapes the raw endpoint has always accepted, deciding from
+     * the first field only, so rows can be emitted before the rest of the body is read:
+     * <ol>
+     *   <li>{@code {}} is rejected.</li>
+     *   <li>An object whose first value is not a container is a single row in Sheet1.</li>
+     *   <li>A top-level array holds the rows of Sheet1.</li>
+     *   <li>An object with one container field: a nested object is a single row in
+     *   Sheet1, an array of objects is a sheet named after the key, and an array of
+     *   scalars becomes Sheet1 rows with the key as their only column.</li>
+     *   <li>An object with several fields is a map of sheets.</li>
+     * </ol>
+     * Cases 4 and 5 agree whenever the first value is an array of objects, so that is
+     * streamed straight away; the other single-field cases fail if a second field follows.
+     */
+    private static void readFlexible(JsonParser parser, RowHandler handler) throws IOException {
+        JsonToken root = parser.nextToken();
+
+        if (root == JsonToken.START_ARRAY) {
+            readSheetRows(parser, DEFAULT_SHEET, handler);
+            return;
+        }
+        if (root != JsonToken.START_OBJECT) {
+            throw new InvalidInputException("Unsupported JSON structure. Must be an object, array of objects, or a map of arrays.");
+        }
+
+        if (parser.nextToken() != JsonToken.FIELD_NAME) {
+            throw new InvalidInputException("Empty JSON object is not valid.");
+        }
+
+        String key = parser.currentName();
+        JsonToken first = parser.nextToken();
+
+        if (!first.isStructStart()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put(key, parser.readValueAs(Object.class));
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                row.put(field, parser.readValueAs(Object.class));
+            }
+            handler.onRow(DEFAULT_SHEET, row);
+            return;
+        }
+
+        if (first == JsonToken.START_OBJECT) {
+            Map<String, Object> row = parser.readValueAs(ROW_TYPE);
+            requireSingleField(parser, key);
+            handler.onRow(DEFAULT_SHEET, row);
+            return;
+        }
+
+        JsonToken element = parser.nextToken();
+        if (element != JsonToken.START_OBJECT && element != JsonToken.END_ARRAY) {
+            do {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put(key, parser.readValueAs(Object.class));
+                handler.onRow(DEFAULT_SHEET, row);
+            } while (parser.nextToken() != JsonToken.END_ARRAY);
+            requireSingleField(parser, key);
+            return;
+        }
+
+        for (; element != JsonToken.END_ARRAY; element = parser.nextToken()) {
+            handler.onRow(key, readRow(parser));
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String sheetName = parser.currentName();
+            parser.nextToken();
+            readSheetRows(parser, sheetName, handler);
+        }
+    }
+
+    // Expects the parser on the sheet's value; null counts as an empty sheet.
+    private static void readSheetRows(JsonParser parser, String sheetName, RowHandler handler) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("Sheet '" + sheetName + "' must be an array of rows.");
+        }
+
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            handler.onRow(sheetName, readRow(parser));
+        }
+    }
+
+    private static Map<String, Object> readRow(JsonParser parser) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? Map.of() : parser.readValueAs(ROW_TYPE);
+    }
+
+    private static void requireSingleField(JsonParser parser, String key) throws IOException {
+        if (parser.nextToken() != JsonToken.END_OBJECT) {
+            throw new InvalidInputException("Unsupported nested structure inside key: " + key);
+        }
+    }
+}
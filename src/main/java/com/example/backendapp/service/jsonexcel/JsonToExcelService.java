@@ -1,72 +1,310 @@
 package com.example.backendapp.service.jsonexcel;
 
 import com.example.backendapp.cache.JsonToExcelCache;
+import com.example.backendapp.cache.RequestCoalescer;
 import com.example.backendapp.exception.ConversionException;
+import com.example.backendapp.exception.InvalidInputException;
+import com.example.backendapp.metrics.MeteredOutputStream;
+import com.example.backendapp.metrics.PipelineMetrics;
+import com.example.backendapp.metrics.PipelineMetrics.Stage;
 import com.example.backendapp.util.CacheKeyUtil;
+import com.example.backendapp.util.DiskTeeOutputStream;
+import com.example.backendapp.util.SpooledUpload;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 @Service
 public class JsonToExcelService {
 
     private static final Logger log = LoggerFactory.getLogger(JsonToExcelService.class);
 
+    // Streamed results above this size are sent but not cached.
+    private static final long MAX_CACHED_STREAM_BYTES = 10 * 1024 * 1024;
+    private static final long MAX_AI_INPUT_BYTES = 10 * 1024 * 1024;
+
     private final RawJsonToExcelService rawService;
     private final AiJsonToExcelService aiService;
     private final JsonToExcelCache jsonToExcelCache;
+    private final RequestCoalescer requestCoalescer;
+    private final PipelineMetrics pipelineMetrics;
 
     @Autowired
     public JsonToExcelService(RawJsonToExcelService rawService,
                               AiJsonToExcelService aiService,
-                              JsonToExcelCache jsonToExcelCache) {
+                              JsonToExcelCache jsonToExcelCache,
+                              RequestCoalescer requestCoalescer,
+                              PipelineMetrics pipelineMetrics) {
         this.rawService = rawService;
         this.aiService = aiService;
         this.jsonToExcelCache = jsonToExcelCache;
+        this.requestCoalescer = requestCoalescer;
+        this.pipelineMetrics = pipelineMetrics;
     }
 
     public Mono<byte[]> convert(MultipartFile file, boolean useAI) {
-        String cacheKey = CacheKeyUtil.generateJsonToExcelKey(file, useAI);
-        byte[] cached = jsonToExcelCache.get(cacheKey);
-        if (cached != null) {
-            log.info("Cache HIT for JSON-to-Excel (file input)");
-            return Mono.just(cached);
-        }
+        PipelineMetrics.Recorder metrics = pipelineMetrics.forRequest(PipelineMetrics.JSON_TO_EXCEL, useAI);
+        return Mono.using(
+                () -> spool(() -> SpooledUpload.of(file), metrics),
+                upload -> {
+                    String cacheKey = CacheKeyUtil.generateJsonToExcelKey(upload.getSha256(), useAI);
+                    byte[] cached = lookup(cacheKey, metrics);
+                    if (cached != null) {
+                        log.info("Cache HIT for JSON-to-Excel (file input)");
+                        return Mono.just(cached);
+                    }
 
-        return rawService.parseJsonFile(file)
+                    if (useAI) {
+                        checkAiInputSize(upload);
+                    }
+                    return coalesce(cacheKey, upload, shared -> useAI
+                            ? Mono.fromCallable(() -> parse(() -> rawService.readJsonFile(shared.getPath()), metrics))
+                                    .flatMap(data -> convertInternal(data, cacheKey, metrics))
+                            : cacheOnSuccess(Mono.fromCallable(() -> {
+                                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                                rawService.writeExcel(shared.getPath(), JsonRowReader.Layout.SHEETS, out, metrics);
+                                return out.toByteArray();
+                            }), cacheKey, metrics));
+                },
+                SpooledUpload::close
+        )
                 .subscribeOn(Schedulers.boundedElastic())
-                .flatMap(data -> convertInternal(data, cacheKey, useAI))
                 .onErrorMap(e -> new ConversionException("Failed to parse uploaded JSON file: " + e.getMessage(), e));
     }
 
-    public Mono<byte[]> convert(Map<String, List<Map<String, Object>>> rawJson, boolean useAI) {
-        String cacheKey = CacheKeyUtil.generateJsonToExcelKey(rawJson, useAI);
+    /**
+     * Converts a {@code /json-to-excel/raw} body. The body is spooled and hashed in one
+     * pass for the cache key, then read token by token: its shape is recognised from
+     * the first field and rows go straight to the sheet writer, so no tree or map of
+     * the whole document is built unless AI enhancement needs one.
+     */
+    public Mono<byte[]> convertRaw(InputStream body, boolean useAI) {
+        PipelineMetrics.Recorder metrics = pipelineMetrics.forRequest(PipelineMetrics.JSON_TO_EXCEL_RAW, useAI);
+        return Mono.using(
+                () -> spool(() -> SpooledUpload.of(body), metrics),
+                upload -> {
+                    String cacheKey = CacheKeyUtil.generateJsonToExcelRawKey(upload.getSha256(), useAI);
+                    byte[] cached = lookup(cacheKey, metrics);
+                    if (cached != null) {
+                        log.info("Cache HIT for raw JSON-to-Excel (JSON input)");
+                        return Mono.just(cached);
+                    }
+
+                    if (useAI) {
+                        checkAiInputSize(upload);
+                    }
+                    return coalesce(cacheKey, upload, shared -> useAI
+                            ? Mono.fromCallable(() -> parse(() -> rawService.readFlexibleJsonFile(shared.getPath()), metrics))
+                                    .flatMap(data -> convertInternal(data, cacheKey, metrics))
+                            : cacheOnSuccess(Mono.fromCallable(() -> {
+                                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                                rawService.writeExcel(shared.getPath(), JsonRowReader.Layout.FLEXIBLE, out, metrics);
+                                return out.toByteArray();
+                            }), cacheKey, metrics));
+                },
+                SpooledUpload::close
+        )
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorMap(JsonToExcelService::isInputError,
+                        e -> new InvalidInputException("Failed to parse input JSON: " + e.getMessage()));
+    }
+
+    /**
+     * Streaming variant of {@link #convert(MultipartFile, boolean)}: the workbook is
+     * written straight to the response instead of being collected into a byte array.
+     * With {@code cacheResult} the output is teed to a temp file and cached once it has
+     * been written completely, as long as it is small enough to be worth keeping.
+     */
+    public StreamingResponseBody stream(MultipartFile file, boolean useAI, boolean cacheResult) {
+        PipelineMetrics.Recorder metrics = pipelineMetrics.forRequest(PipelineMetrics.JSON_TO_EXCEL, useAI);
+        return response -> {
+            try (SpooledUpload upload = spool(() -> SpooledUpload.of(file), metrics);
+                 MeteredOutputStream out = metrics.meter(response)) {
+                String cacheKey = CacheKeyUtil.generateJsonToExcelKey(upload.getSha256(), useAI);
+                if (serveFromCache(cacheKey, out, metrics)) {
+                    return;
+                }
+
+                if (!useAI) {
+                    streamInternal(target -> writeParsed(upload, target, metrics), cacheKey, cacheResult, out, metrics);
+                    return;
+                }
+
+                checkAiInputSize(upload);
+                Map<String, List<Map<String, Object>>> data;
+                try {
+                    data = parse(() -> rawService.readJsonFile(upload.getPath()), metrics);
+                } catch (Exception e) {
+                    throw new ConversionException("Failed to parse uploaded JSON file: " + e.getMessage(), e);
+                }
+                if (!data.isEmpty()) {
+                    streamInternal(target -> writeEnhancedExcel(data, target, metrics), cacheKey, cacheResult, out, metrics);
+                }
+            }
+        };
+    }
+
+    public StreamingResponseBody streamRaw(InputStream body, boolean useAI, boolean cacheResult) {
+        PipelineMetrics.Recorder metrics = pipelineMetrics.forRequest(PipelineMetrics.JSON_TO_EXCEL_RAW, useAI);
+        return response -> {
+            try (SpooledUpload upload = spool(() -> SpooledUpload.of(body), metrics);
+                 MeteredOutputStream out = metrics.meter(response)) {
+                String cacheKey = CacheKeyUtil.generateJsonToExcelRawKey(upload.getSha256(), useAI);
+                if (serveFromCache(cacheKey, out, metrics)) {
+                    return;
+                }
+
+                if (!useAI) {
+                    streamInternal(target -> writeRaw(upload, target, metrics), cacheKey, cacheResult, out, metrics);
+                    return;
+                }
+
+                checkAiInputSize(upload);
+                Map<String, List<Map<String, Object>>> data;
+                try {
+                    data = parse(() -> rawService.readFlexibleJsonFile(upload.getPath()), metrics);
+                } catch (JsonProcessingException | IllegalArgumentException | InvalidInputException e) {
+                    throw new InvalidInputException("Failed to parse input JSON: " + e.getMessage());
+                }
+                if (!data.isEmpty()) {
+                    streamInternal(target -> writeEnhancedExcel(data, target, metrics), cacheKey, cacheResult, out, metrics);
+                }
+            }
+        };
+    }
+
+    private interface IoSupplier<T> {
+        T get() throws IOException;
+    }
+
+    private SpooledUpload spool(IoSupplier<SpooledUpload> spooler, PipelineMetrics.Recorder metrics) throws IOException {
+        long start = System.nanoTime();
+        SpooledUpload upload = spooler.get();
+        metrics.record(Stage.UPLOAD_READ, start);
+        metrics.bytes(Stage.UPLOAD_READ, upload.getSize());
+        return upload;
+    }
+
+    private <T> T parse(IoSupplier<T> parser, PipelineMetrics.Recorder metrics) throws IOException {
+        long start = System.nanoTime();
+        T data = parser.get();
+        metrics.record(Stage.JSON_PARSE, start);
+        return data;
+    }
+
+    private byte[] lookup(String cacheKey, PipelineMetrics.Recorder metrics) {
+        long start = System.nanoTime();
         byte[] cached = jsonToExcelCache.get(cacheKey);
-        if (cached != null) {
-            log.info("Cache HIT for raw JSON-to-Excel (JSON input)");
-            return Mono.just(cached);
+        metrics.record(Stage.CACHE_LOOKUP, start);
+        return cached;
+    }
+
+    private boolean serveFromCache(String cacheKey, OutputStream out, PipelineMetrics.Recorder metrics) throws IOException {
+        long start = System.nanoTime();
+        boolean hit = jsonToExcelCache.writeTo(cacheKey, out);
+        metrics.record(Stage.CACHE_LOOKUP, start);
+        if (!hit) {
+            return false;
+        }
+        log.info("Cache HIT for streamed JSON-to-Excel");
+        return true;
+    }
+
+    // Identical uploads in flight share one conversion, which keeps the upload until it ends.
+    private Mono<byte[]> coalesce(String cacheKey, SpooledUpload upload, Function<SpooledUpload, Mono<byte[]>> conversion) {
+        return requestCoalescer.coalesce(cacheKey, () -> conversion.apply(upload.retain())
+                .doFinally(signal -> upload.close()));
+    }
+
+    private void streamInternal(StreamingResponseBody writer, String cacheKey, boolean cacheResult,
+                                OutputStream out, PipelineMetrics.Recorder metrics) throws IOException {
+        if (!cacheResult) {
+            writer.writeTo(out);
+            return;
+        }
+
+        try (DiskTeeOutputStream tee = DiskTeeOutputStream.to(out)) {
+            writer.writeTo(tee);
+            if (tee.getSize() <= MAX_CACHED_STREAM_BYTES) {
+                long start = System.nanoTime();
+                try (InputStream copy = tee.openCopy()) {
+                    jsonToExcelCache.put(cacheKey, copy, tee.getSize());
+                }
+                metrics.record(Stage.CACHE_STORE, start);
+                log.info("Cached streamed JSON-to-Excel result");
+            }
+        }
+    }
+
+    private void writeParsed(SpooledUpload upload, OutputStream out, PipelineMetrics.Recorder metrics) throws IOException {
+        try {
+            rawService.writeExcel(upload.getPath(), JsonRowReader.Layout.SHEETS, out, metrics);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            throw new ConversionException("Failed to parse uploaded JSON file: " + e.getMessage(), e);
         }
+    }
+
+    private void writeRaw(SpooledUpload upload, OutputStream out, PipelineMetrics.Recorder metrics) throws IOException {
+        try {
+            rawService.writeExcel(upload.getPath(), JsonRowReader.Layout.FLEXIBLE, out, metrics);
+        } catch (JsonProcessingException | IllegalArgumentException | InvalidInputException e) {
+            throw new InvalidInputException("Failed to parse input JSON: " + e.getMessage());
+        }
+    }
 
-        return convertInternal(rawJson, cacheKey, useAI);
+    private static boolean isInputError(Throwable e) {
+        return e instanceof JsonProcessingException || e instanceof IllegalArgumentException
+                || e instanceof InvalidInputException;
     }
 
-    private Mono<byte[]> convertInternal(Map<String, List<Map<String, Object>>> data, String cacheKey, boolean useAI) {
-        Mono<byte[]> resultMono = useAI
-                ? aiService.enhance(data)
-                : rawService.generateExcel(data);
+    // AI enhancement needs every row in memory and in the prompt, so it keeps the old cap.
+    private void checkAiInputSize(SpooledUpload upload) {
+        if (upload.getSize() > MAX_AI_INPUT_BYTES) {
+            throw new ConversionException("AI enhancement is limited to JSON files of 10 MB.");
+        }
+    }
+
+    private void writeEnhancedExcel(Map<String, List<Map<String, Object>>> data, OutputStream out,
+                                    PipelineMetrics.Recorder metrics) throws IOException {
+        long start = System.nanoTime();
+        Map<String, List<Map<String, Object>>> enhanced = aiService.enhanceSheets(data).block();
+        metrics.record(Stage.AI_ENHANCE, start);
+        try {
+            aiService.writeHighlightedExcel(data, enhanced, out, metrics);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ConversionException("Failed to write AI-enhanced workbook", e);
+        }
+    }
+
+    private Mono<byte[]> convertInternal(Map<String, List<Map<String, Object>>> data, String cacheKey,
+                                         PipelineMetrics.Recorder metrics) {
+        return cacheOnSuccess(aiService.enhance(data, metrics), cacheKey, metrics);
+    }
 
+    private Mono<byte[]> cacheOnSuccess(Mono<byte[]> resultMono, String cacheKey, PipelineMetrics.Recorder metrics) {
         return resultMono
                 .subscribeOn(Schedulers.boundedElastic())
                 .flatMap(result ->
                         Mono.fromCallable(() -> {
+                            long start = System.nanoTime();
                             jsonToExcelCache.put(cacheKey, result);
+                            metrics.record(Stage.CACHE_STORE, start);
                             log.info("Cached JSON-to-Excel result");
                             return result;
                         }).subscribeOn(Schedulers.boundedElastic())
@@ -1,5 +1,9 @@
 package com.example.backendapp.service.jsonexcel;
 
+import com.example.backendapp.metrics.PipelineMetrics;
+import com.example.backendapp.metrics.PipelineMetrics.Stage;
+import com.example.backendapp.util.CellValuePatterns;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.poi.ss.usermodel.*;
@@ -9,21 +13,21 @@ import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
-import reactor.util.function.Tuples;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
 
 @Service
 public class RawJsonToExcelService {
@@ -41,28 +45,48 @@ public class RawJsonToExcelService {
     private static final String FORMAT_DATETIME = "yyyy-mm-dd hh:mm:ss";
     private static final String FORMAT_PERCENT = "0.00%";
 
-    private static final Pattern PATTERN_DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
-    private static final Pattern PATTERN_DATETIME = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d+)?([zZ]|([+-])(\\d{2}):?(\\d{2}))?");
-    private static final Set<String> KEYWORDS_PERCENT = Set.of("percent", "rate", "share", "percentage", "discount");
-
     private static final int ROW_WRITE_BATCH_SIZE = 1000;
+    private static final int ROW_PREPARE_BATCH_SIZE = 2048;
 
-    private record PreparedCellData(Object value, String styleHint) {}
+    record PreparedCellData(Object value, String styleHint) {}
 
-    public Mono<Map<String, List<Map<String, Object>>>> parseJsonFile(MultipartFile file) {
-        if (file == null || file.isEmpty()) {
-            log.warn("Attempted to parse a null or empty JSON file.");
-            return Mono.error(new IllegalArgumentException("Input file must not be null or empty."));
-        }
-        return Mono.fromCallable(() -> {
-                    log.info("Parsing JSON file: {}", file.getOriginalFilename());
-                    return objectMapper.readValue(
-                            file.getInputStream(),
-                            new TypeReference<Map<String, List<Map<String, Object>>>>() {});
-                })
+    public Mono<Map<String, List<Map<String, Object>>>> parseJsonFile(Path path) {
+        return Mono.fromCallable(() -> readJsonFile(path))
                 .subscribeOn(Schedulers.boundedElastic());
     }
 
+    public Map<String, List<Map<String, Object>>> readJsonFile(Path path) throws IOException {
+        checkNotEmpty(path);
+        log.info("Parsing JSON file: {}", path.getFileName());
+        try (InputStream in = Files.newInputStream(path)) {
+            return objectMapper.readValue(
+                    in,
+                    new TypeReference<Map<String, List<Map<String, Object>>>>() {});
+        }
+    }
+
+    /**
+     * Reads a body in any of the shapes accepted by {@code /json-to-excel/raw} into
+     * sheets of rows. Only AI enhancement needs this; plain conversions stream instead.
+     */
+    Map<String, List<Map<String, Object>>> readFlexibleJsonFile(Path path) throws IOException {
+        checkNotEmpty(path);
+        Map<String, List<Map<String, Object>>> sheets = new LinkedHashMap<>();
+        try (InputStream in = Files.newInputStream(path);
+             JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            JsonRowReader.read(parser, JsonRowReader.Layout.FLEXIBLE,
+                    (sheetName, rowData) -> sheets.computeIfAbsent(sheetName, k -> new ArrayList<>()).add(rowData));
+        }
+        return sheets;
+    }
+
+    private void checkNotEmpty(Path path) throws IOException {
+        if (Files.size(path) == 0) {
+            log.warn("Attempted to parse an empty JSON file.");
+            throw new IllegalArgumentException("Input file must not be null or empty.");
+        }
+    }
+
     public Mono<byte[]> generateExcel(Map<String, List<Map<String, Object>>> jsonData) {
         if (jsonData == null || jsonData.isEmpty()) {
             log.warn("Attempted to generate Excel from null or empty data.");
@@ -70,90 +94,118 @@ public class RawJsonToExcelService {
         }
 
         return Mono.fromCallable(() -> {
-                    SXSSFWorkbook workbook = new SXSSFWorkbook(100);
                     ByteArrayOutputStream out = new ByteArrayOutputStream();
-                    Map<String, CellStyle> styleCache = createStyleCache(workbook);
-                    return Tuples.of(workbook, out, styleCache);
+                    writeExcel(jsonData, out);
+                    return out.toByteArray();
                 })
-                .subscribeOn(Schedulers.boundedElastic())
-                .flatMap(tuple -> {
-                    SXSSFWorkbook workbook = tuple.getT1();
-                    ByteArrayOutputStream out = tuple.getT2();
-                    Map<String, CellStyle> styleCache = tuple.getT3();
-
-                    List<Mono<Void>> sheetMonos = new ArrayList<>();
-                    int[] sheetIndex = {0};
-
-                    for (Map.Entry<String, List<Map<String, Object>>> entry : jsonData.entrySet()) {
-                        String sheetName = entry.getKey();
-                        List<Map<String, Object>> rowsData = entry.getValue();
-
-                        if (rowsData == null || rowsData.isEmpty()) {
-                            log.debug("Skipping empty sheet: {}", sheetName);
-                            continue;
-                        }
-
-                        String safeSheetName = WorkbookUtil.createSafeSheetName(sheetName);
-                        SXSSFSheet sheet = workbook.createSheet(safeSheetName);
-                        workbook.setSheetOrder(safeSheetName, sheetIndex[0]++);
-                        sheet.trackAllColumnsForAutoSizing();
-
-                        Map<String, Object> firstRowData = rowsData.getFirst();
-                        List<String> headers = new ArrayList<>(new LinkedHashSet<>(firstRowData.keySet()));
-                        writeHeaderRow(sheet, headers, styleCache.get(STYLE_HEADER));
-                        AtomicInteger rowNum = new AtomicInteger(1);
-
-                        Mono<Void> sheetMono = Flux.fromIterable(rowsData)
-                                .flatMapSequential(rowData -> Mono.fromRunnable(() -> {
-                                    List<PreparedCellData> rowCells = prepareRowData(rowData, headers);
-                                    Row row = sheet.createRow(rowNum.getAndIncrement());
-
-                                    for (int col = 0; col < rowCells.size(); col++) {
-                                        Cell cell = row.createCell(col);
-                                        PreparedCellData data = rowCells.get(col);
-                                        try {
-                                            applyPreparedCellValue(cell, data, styleCache);
-                                        } catch (Exception e) {
-                                            log.warn("Cell write error. Sheet: {}, Row: {}, Col: {}, Value: '{}'. Err: {}",
-                                                    safeSheetName, row.getRowNum(), col, data.value(), e.getMessage());
-                                            cell.setCellValue("WRITE_ERROR");
-                                            CellStyle errStyle = styleCache.get(STYLE_ERROR);
-                                            if (errStyle != null) cell.setCellStyle(errStyle);
-                                        }
-                                    }
-
-                                    if (row.getRowNum() % ROW_WRITE_BATCH_SIZE == 0) {
-                                        try {
-                                            sheet.flushRows(ROW_WRITE_BATCH_SIZE);
-                                        } catch (IOException e) {
-                                            log.error("Flushing rows failed for {}", safeSheetName, e);
-                                        }
-                                    }
-                                }), 1)
-                                .doOnComplete(() -> {
-                                    try {
-                                        sheet.flushRows(0);
-                                        sheet.createFreezePane(0, 1);
-                                        for (int col = 0; col < headers.size(); col++) {
-                                            sheet.autoSizeColumn(col);
-                                        }
-                                        log.debug("Finished writing sheet: {}", safeSheetName);
-                                    } catch (IOException e) {
-                                        log.error("Final flush failed for {}", safeSheetName, e);
-                                    }
-                                })
-                                .then();
-
-                        sheetMonos.add(sheetMono);
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Writes the workbook straight to {@code out}. SXSSF keeps only a window of rows in
+     * memory, so streaming to the response avoids holding the finished file in heap.
+     */
+    public void writeExcel(Map<String, List<Map<String, Object>>> jsonData, OutputStream out) throws IOException {
+        writeExcel(jsonData, out, PipelineMetrics.UNRECORDED);
+    }
+
+    public void writeExcel(Map<String, List<Map<String, Object>>> jsonData, OutputStream out,
+                           PipelineMetrics.Recorder metrics) throws IOException {
+        long start = System.nanoTime();
+        long rows = 0;
+        long cells = 0;
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(100)) {
+            Map<String, CellStyle> styleCache = createStyleCache(workbook);
+
+            for (Map.Entry<String, List<Map<String, Object>>> entry : jsonData.entrySet()) {
+                String sheetName = entry.getKey();
+                List<Map<String, Object>> rowsData = entry.getValue();
+
+                if (rowsData == null || rowsData.isEmpty()) {
+                    log.debug("Skipping empty sheet: {}", sheetName);
+                    continue;
+                }
+
+                SheetRowWriter writer = createSheetWriter(workbook, sheetName, rowsData.getFirst(), styleCache, metrics);
+                for (Map<String, Object> rowData : rowsData) {
+                    writer.add(rowData);
+                }
+                writer.finish();
+                rows += writer.rowCount();
+                cells += writer.cellCount();
+            }
+
+            workbook.write(out);
+        }
+        recordWrite(metrics, start, rows, cells);
+    }
+
+    /**
+     * Token-streaming counterpart of {@link #readJsonFile} followed by
+     * {@link #writeExcel(Map, OutputStream)}: each row object is parsed and handed to
+     * the sheet writer before the next one is read, so heap use stays flat however
+     * many rows the file holds. Nothing is written if every sheet is empty.
+     */
+    void writeExcel(Path jsonPath, JsonRowReader.Layout layout, OutputStream out) throws IOException {
+        writeExcel(jsonPath, layout, out, PipelineMetrics.UNRECORDED);
+    }
+
+    // Parsing and writing are one pass here, so both count as excel_write.
+    void writeExcel(Path jsonPath, JsonRowReader.Layout layout, OutputStream out,
+                    PipelineMetrics.Recorder metrics) throws IOException {
+        checkNotEmpty(jsonPath);
+        log.info("Streaming JSON file: {}", jsonPath.getFileName());
+        long start = System.nanoTime();
+        long[] counts = new long[2];
+
+        try (InputStream in = Files.newInputStream(jsonPath);
+             JsonParser parser = objectMapper.getFactory().createParser(in);
+             SXSSFWorkbook workbook = new SXSSFWorkbook(100)) {
+
+            Map<String, CellStyle> styleCache = createStyleCache(workbook);
+            SheetRowWriter[] current = {null};
+
+            JsonRowReader.read(parser, layout, (sheetName, rowData) -> {
+                if (current[0] == null || !current[0].sheetName.equals(sheetName)) {
+                    if (current[0] != null) {
+                        finishSheet(current[0], counts);
                     }
+                    current[0] = createSheetWriter(workbook, sheetName, rowData, styleCache, metrics);
+                }
+                current[0].add(rowData);
+            });
+            if (current[0] != null) {
+                finishSheet(current[0], counts);
+            }
+
+            if (workbook.getNumberOfSheets() > 0) {
+                workbook.write(out);
+            }
+        }
+        recordWrite(metrics, start, counts[0], counts[1]);
+    }
 
-                    return Flux.concat(sheetMonos)
-                            .then(Mono.fromCallable(() -> {
-                                workbook.write(out);
-                                workbook.close();
-                                return out.toByteArray();
-                            }).subscribeOn(Schedulers.boundedElastic()));
-                });
+    private static void finishSheet(SheetRowWriter writer, long[] counts) throws IOException {
+        writer.finish();
+        counts[0] += writer.rowCount();
+        counts[1] += writer.cellCount();
+    }
+
+    private static void recordWrite(PipelineMetrics.Recorder metrics, long start, long rows, long cells) {
+        metrics.record(Stage.EXCEL_WRITE, start);
+        metrics.rows(Stage.EXCEL_WRITE, rows);
+        metrics.cells(Stage.EXCEL_WRITE, cells);
+    }
+
+    // Headers come from the first row, as in the buffered conversion.
+    private SheetRowWriter createSheetWriter(SXSSFWorkbook workbook, String sheetName, Map<String, Object> firstRowData,
+                                             Map<String, CellStyle> styleCache, PipelineMetrics.Recorder metrics) {
+        String safeSheetName = WorkbookUtil.createSafeSheetName(sheetName);
+        SXSSFSheet sheet = workbook.createSheet(safeSheetName);
+        workbook.setSheetOrder(safeSheetName, workbook.getNumberOfSheets() - 1);
+
+        List<String> headers = new ArrayList<>(new LinkedHashSet<>(firstRowData.keySet()));
+        return new SheetRowWriter(sheet, sheetName, headers, styleCache, metrics);
     }
 
     private Map<String, CellStyle> createStyleCache(Workbook workbook) {
@@ -208,18 +260,18 @@ public class RawJsonToExcelService {
         return preparedCells;
     }
 
-    private PreparedCellData prepareSingleCellValue(Object value, String header) {
+    PreparedCellData prepareSingleCellValue(Object value, String header) {
         if (value == null) return new PreparedCellData(null, null);
 
         try {
             switch (value) {
                 case String strVal -> {
                     String trimmedVal = strVal.trim();
-                    if (PATTERN_DATE.matcher(trimmedVal).matches()) {
+                    if (CellValuePatterns.isDate(trimmedVal)) {
                         LocalDate date = LocalDate.parse(trimmedVal);
                         return new PreparedCellData(Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant()), STYLE_DATE);
                     }
-                    if (PATTERN_DATETIME.matcher(trimmedVal).matches()) {
+                    if (CellValuePatterns.isDateTime(trimmedVal)) {
                         LocalDateTime dateTime = LocalDateTime.parse(trimmedVal);
                         return new PreparedCellData(Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant()), STYLE_DATETIME);
                     }
@@ -231,8 +283,7 @@ public class RawJsonToExcelService {
                 }
                 case Number num -> {
                     double numericValue = num.doubleValue();
-                    String lowerHeader = header.toLowerCase();
-                    if (KEYWORDS_PERCENT.stream().anyMatch(lowerHeader::contains)) {
+                    if (CellValuePatterns.isPercentHeader(header)) {
                         return new PreparedCellData(numericValue / 100.0, STYLE_PERCENT);
                     }
                     return new PreparedCellData(numericValue, null);
@@ -274,4 +325,112 @@ public class RawJsonToExcelService {
 
         if (style != null) cell.setCellStyle(style);
     }
+
+    /**
+     * Writes the data rows of one sheet. Rows are collected into batches whose cell
+     * values are prepared in parallel on the common fork-join pool, while the calling
+     * thread appends the previous batch to the sheet, so the sheet itself is only ever
+     * touched by one thread and rows keep their input order.
+     */
+    private final class SheetRowWriter {
+
+        private final SXSSFSheet sheet;
+        // The name as given in the JSON; the sheet itself may carry a shortened, safe version.
+        private final String sheetName;
+        private final List<String> headers;
+        private final Map<String, CellStyle> styleCache;
+        private final PipelineMetrics.Recorder metrics;
+
+        private List<Map<String, Object>> batch = new ArrayList<>(ROW_PREPARE_BATCH_SIZE);
+        private CompletableFuture<List<List<PreparedCellData>>> pending;
+        private int nextRowNum = 1;
+
+        SheetRowWriter(SXSSFSheet sheet, String sheetName, List<String> headers, Map<String, CellStyle> styleCache,
+                       PipelineMetrics.Recorder metrics) {
+            this.sheet = sheet;
+            this.sheetName = sheetName;
+            this.headers = headers;
+            this.styleCache = styleCache;
+            this.metrics = metrics;
+
+            sheet.trackAllColumnsForAutoSizing();
+            writeHeaderRow(sheet, headers, styleCache.get(STYLE_HEADER));
+        }
+
+        void add(Map<String, Object> rowData) throws IOException {
+            batch.add(rowData);
+            if (batch.size() == ROW_PREPARE_BATCH_SIZE) {
+                submitBatch();
+            }
+        }
+
+        void finish() throws IOException {
+            if (!batch.isEmpty()) {
+                submitBatch();
+            }
+            writePending();
+
+            sheet.flushRows(0);
+            sheet.createFreezePane(0, 1);
+            long autosizeStart = System.nanoTime();
+            for (int col = 0; col < headers.size(); col++) {
+                sheet.autoSizeColumn(col);
+            }
+            metrics.record(Stage.AUTOSIZE, autosizeStart);
+            log.debug("Finished writing sheet: {}", sheetName);
+        }
+
+        long rowCount() {
+            return nextRowNum - 1;
+        }
+
+        long cellCount() {
+            return rowCount() * headers.size();
+        }
+
+        private void submitBatch() throws IOException {
+            List<Map<String, Object>> rows = batch;
+            batch = new ArrayList<>(ROW_PREPARE_BATCH_SIZE);
+
+            CompletableFuture<List<List<PreparedCellData>>> next = CompletableFuture.supplyAsync(() ->
+                    rows.parallelStream()
+                            .map(rowData -> prepareRowData(rowData, headers))
+                            .toList());
+            writePending();
+            pending = next;
+        }
+
+        private void writePending() throws IOException {
+            if (pending == null) return;
+
+            List<List<PreparedCellData>> preparedRows;
+            try {
+                preparedRows = pending.join();
+            } finally {
+                pending = null;
+            }
+
+            for (List<PreparedCellData> rowCells : preparedRows) {
+                Row row = sheet.createRow(nextRowNum++);
+
+                for (int col = 0; col < rowCells.size(); col++) {
+                    Cell cell = row.createCell(col);
+                    PreparedCellData data = rowCells.get(col);
+                    try {
+                        applyPreparedCellValue(cell, data, styleCache);
+                    } catch (Exception e) {
+                        log.warn("Cell write error. Sheet: {}, Row: {}, Col: {}, Value: '{}'. Err: {}",
+                                sheetName, row.getRowNum(), col, data.value(), e.getMessage());
+                        cell.setCellValue("WRITE_ERROR");
+                        CellStyle errStyle = styleCache.get(STYLE_ERROR);
+                        if (errStyle != null) cell.setCellStyle(errStyle);
+                    }
+                }
+
+                if (row.getRowNum() % ROW_WRITE_BATCH_SIZE == 0) {
+                    sheet.flushRows(ROW_WRITE_BATCH_SIZE);
+                }
+            }
+        }
+    }
 }
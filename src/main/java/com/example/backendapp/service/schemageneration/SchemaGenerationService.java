@@ -1,8 +1,13 @@
 package com.example.backendapp.service.schemageneration;
 
 import com.example.backendapp.cache.AiResponseCache;
-import com.example.backendapp.config.GeminiConfig;
+import com.example.backendapp.cache.RequestCoalescer;
 import com.example.backendapp.exception.AIProcessingException;
+import com.example.backendapp.exception.InvalidInputException;
+import com.example.backendapp.metrics.PipelineMetrics;
+import com.example.backendapp.metrics.PipelineMetrics.Stage;
+import com.example.backendapp.service.gemini.GeminiScheduler;
+import com.example.backendapp.service.gemini.GeminiStreamClient;
 import com.example.backendapp.util.CacheKeyUtil;
 import com.example.backendapp.util.ExcelPreviewUtil;
 import com.example.backendapp.util.GeminiResponseUtil;
@@ -10,10 +15,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
@@ -24,83 +27,127 @@ import java.util.Map;
 public class SchemaGenerationService {
 
     private static final Logger logger = LoggerFactory.getLogger(SchemaGenerationService.class);
+    // The multipart limit is raised for streamed JSON uploads; workbooks here are read whole into memory.
+    private static final long MAX_UPLOAD_BYTES = 10 * 1024 * 1024;
 
-    private final WebClient webClient;
-    private final GeminiConfig geminiConfig;
+    private final GeminiStreamClient geminiStreamClient;
     private final AiResponseCache aiResponseCache;
     private final ObjectMapper objectMapper;
+    private final RequestCoalescer requestCoalescer;
+    private final PipelineMetrics pipelineMetrics;
 
     private record SchemaRequest(String previewJson, String fileKey, String semanticKey) {}
 
     @Autowired
-    public SchemaGenerationService(WebClient.Builder webClientBuilder,
-                                   GeminiConfig geminiConfig,
+    public SchemaGenerationService(GeminiStreamClient geminiStreamClient,
                                    AiResponseCache aiResponseCache,
-                                   ObjectMapper objectMapper) {
-        this.webClient = webClientBuilder.baseUrl("https://generativelanguage.googleapis.com").build();
-        this.geminiConfig = geminiConfig;
+                                   ObjectMapper objectMapper,
+                                   RequestCoalescer requestCoalescer,
+                                   PipelineMetrics pipelineMetrics) {
+        this.geminiStreamClient = geminiStreamClient;
         this.aiResponseCache = aiResponseCache;
         this.objectMapper = objectMapper;
+        this.requestCoalescer = requestCoalescer;
+        this.pipelineMetrics = pipelineMetrics;
     }
 
     public Mono<Object> generate(MultipartFile file) {
+        if (file != null && file.getSize() > MAX_UPLOAD_BYTES) {
+            return Mono.error(new InvalidInputException("File is too large. Max allowed is 10 MB."));
+        }
+        PipelineMetrics.Recorder metrics = pipelineMetrics.forRequest(PipelineMetrics.GENERATE_SCHEMA, true);
         return Mono.fromCallable(() -> {
                     if (file == null || file.isEmpty()) {
                         throw new IllegalArgumentException("Uploaded file is empty or missing.");
                     }
 
+                    long readStart = System.nanoTime();
                     String fileKey = CacheKeyUtil.generateSchemaKey(file);
-                    String cachedFromFileKey = aiResponseCache.getCachedResponse(fileKey);
+                    metrics.record(Stage.UPLOAD_READ, readStart);
+                    metrics.bytes(Stage.UPLOAD_READ, file.getSize());
+
+                    String cachedFromFileKey = lookup(fileKey, metrics);
                     if (cachedFromFileKey != null) {
                         logger.info("File-based cache HIT for key: {}", fileKey);
-                        return Mono.fromCallable(() ->
-                                objectMapper.readValue(cachedFromFileKey, Object.class)
-                        );
+                        return Mono.fromCallable(() -> parse(cachedFromFileKey, metrics));
                     }
 
+                    // Identical uploads in flight share one preview extraction and Gemini call.
+                    return requestCoalescer.coalesce(fileKey, () -> generateFromPreview(file, fileKey, metrics));
+                })
+                .flatMap(mono -> mono)
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorMap(e -> new AIProcessingException(
+                        "Schema generation failed: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()), e));
+    }
+
+    private Mono<Object> generateFromPreview(MultipartFile file, String fileKey, PipelineMetrics.Recorder metrics) {
+        return Mono.fromCallable(() -> {
+                    long parseStart = System.nanoTime();
                     Map<String, List<Map<String, Object>>> previewData = ExcelPreviewUtil.extractPreview(file);
+                    metrics.record(Stage.SHEET_PARSE, parseStart);
+                    metrics.rows(Stage.SHEET_PARSE, previewData.values().stream().mapToLong(List::size).sum());
+
                     String semanticKey = CacheKeyUtil.generateSchemaKey(previewData);
-                    String cachedFromPreview = aiResponseCache.getCachedResponse(semanticKey);
+                    String cachedFromPreview = lookup(semanticKey, metrics);
 
                     if (cachedFromPreview != null) {
                         logger.info("Semantic preview-based cache HIT for key: {}", semanticKey);
-                        return Mono.fromCallable(() ->
-                                objectMapper.readValue(cachedFromPreview, Object.class)
-                        );
+                        return Mono.fromCallable(() -> parse(cachedFromPreview, metrics));
                     }
 
                     logger.info("Cache MISS. Calling Gemini API for schema generation...");
+                    long serializeStart = System.nanoTime();
                     String previewJson = objectMapper.writeValueAsString(previewData);
-                    return generateSchemaFromGemini(new SchemaRequest(previewJson, fileKey, semanticKey));
+                    metrics.record(Stage.JSON_SERIALIZE, serializeStart);
+                    metrics.bytes(Stage.JSON_SERIALIZE, previewJson.length());
+                    // Different files with the same preview can share the Gemini call as well.
+                    return requestCoalescer.coalesce(semanticKey,
+                            () -> generateSchemaFromGemini(new SchemaRequest(previewJson, fileKey, semanticKey), metrics));
                 })
                 .flatMap(mono -> mono)
-                .subscribeOn(Schedulers.boundedElastic())
-                .onErrorMap(e -> new AIProcessingException(
-                        "Schema generation failed: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()), e));
+                .subscribeOn(Schedulers.boundedElastic());
     }
 
-    private Mono<Object> generateSchemaFromGemini(SchemaRequest request) {
+    private Mono<Object> generateSchemaFromGemini(SchemaRequest request, PipelineMetrics.Recorder metrics) {
         Map<String, Object> requestBody = buildRequestBody(request.previewJson());
 
-        return webClient.post()
-                .uri(uriBuilder -> uriBuilder
-                        .path(geminiConfig.buildModelPath())
-                        .queryParam("key", geminiConfig.getApiKey())
-                        .build())
-                .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(requestBody)
-                .retrieve()
-                .bodyToMono(String.class)
-                .map(GeminiResponseUtil::extractTextFromGeminiResponse)
+        return Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return geminiStreamClient.streamText(requestBody,
+                                    GeminiScheduler.Priority.INTERACTIVE,
+                                    GeminiScheduler.estimateTokens(request.previewJson()))
+                            .collect(StringBuilder::new, StringBuilder::append)
+                            .doOnNext(text -> metrics.record(Stage.AI_ENHANCE, start));
+                })
+                .map(text -> GeminiResponseUtil.stripCodeFence(text.toString()))
+                // The answer completes on the event-loop thread it streamed in on; store and parse elsewhere.
+                .publishOn(Schedulers.boundedElastic())
                 .doOnNext(response -> {
                     logger.info("Caching Gemini response under both keys.");
+                    long start = System.nanoTime();
                     aiResponseCache.cacheResponse(request.fileKey(), response);
                     aiResponseCache.cacheResponse(request.semanticKey(), response);
+                    metrics.record(Stage.CACHE_STORE, start);
                 })
-                .flatMap(response -> Mono.fromCallable(() -> objectMapper.readValue(response, Object.class)))
+                .flatMap(response -> Mono.fromCallable(() -> parse(response, metrics)))
                 .subscribeOn(Schedulers.boundedElastic());
     }
 
+    private String lookup(String key, PipelineMetrics.Recorder metrics) {
+        long start = System.nanoTime();
+        String cached = aiResponseCache.getCachedResponse(key);
+        metrics.record(Stage.CACHE_LOOKUP, start);
+        return cached;
+    }
+
+    private Object parse(String json, PipelineMetrics.Recorder metrics) throws Exception {
+        long start = System.nanoTime();
+        Object value = objectMapper.readValue(json, Object.class);
+        metrics.record(Stage.JSON_PARSE, start);
+        return value;
+    }
+
     private Map<String, Object> buildRequestBody(String previewJson) {
         String prompt = """
                 Infer JSON Schema from this Excel data (in JSON). Output only the schema:
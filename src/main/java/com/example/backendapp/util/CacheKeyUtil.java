@@ -1,6 +1,8 @@
 package com.example.backendapp.util;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.nio.charset.StandardCharsets;
@@ -11,32 +13,40 @@ import java.util.Map;
 
 public class CacheKeyUtil {
 
-    public static String generateExcelJsonKey(MultipartFile file, boolean useAI) {
-        String filename = file.getOriginalFilename();
-        long size = file.getSize();
-        String key = String.format("excel-to-json:%s:%d:%b", filename, size, useAI);
-        System.out.println("Excel-to-JSON Cache Key = " + key);
+    private static final Logger log = LoggerFactory.getLogger(CacheKeyUtil.class);
+
+    /**
+     * Keys are derived from the SHA-256 of the uploaded bytes (see {@link SpooledUpload})
+     * plus the conversion options, so identical uploads share an entry regardless of
+     * filename or uploader.
+     */
+    public static String generateExcelJsonKey(String contentSha256, boolean useAI, String formulaMode) {
+        String key = String.format("excel-to-json:%s:%b:%s", contentSha256, useAI, formulaMode);
+        log.debug("Excel-to-JSON Cache Key = {}", key);
+        return key;
+    }
+
+    public static String generateJsonToExcelKey(String contentSha256, boolean useAI) {
+        String key = String.format("json-to-excel:file:%s:%b", contentSha256, useAI);
+        log.debug("JSON-to-Excel Cache Key (file) = {}", key);
         return key;
     }
 
-    public static String generateJsonToExcelKey(MultipartFile file, boolean useAI) {
-        String filename = file.getOriginalFilename();
-        long size = file.getSize();
-        String key = String.format("json-to-excel:file:%s:%d:%b", filename, size, useAI);
-        System.out.println("JSON-to-Excel Cache Key (file) = " + key);
+    public static String generateJsonToExcelRawKey(String contentSha256, boolean useAI) {
+        String key = String.format("json-to-excel:raw:%s:%b", contentSha256, useAI);
+        log.debug("JSON-to-Excel Cache Key (raw) = {}", key);
         return key;
     }
 
-    public static String generateJsonToExcelKey(Map<String, List<Map<String, Object>>> jsonData, boolean useAI) {
+    /**
+     * Key for one AI-enhanced chunk. The model and prompt version are part of the key so
+     * answers from a different model or an older prompt are never reused.
+     */
+    public static String generateAiChunkKey(String sheetName, String chunkJson, String promptVersion, String model) {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            String rawJson = mapper.writeValueAsString(jsonData);
-            String hash = sha256(rawJson);
-            String key = String.format("json-to-excel:raw:%s:%b", hash, useAI);
-            System.out.println("JSON-to-Excel Cache Key (raw) = " + key);
-            return key;
+            return "ai-chunk:" + sha256(String.join("\u0000", sheetName, promptVersion, model, chunkJson));
         } catch (Exception e) {
-            throw new RuntimeException("Failed to generate cache key from raw JSON", e);
+            throw new RuntimeException("Failed to generate AI chunk cache key", e);
         }
     }
 
@@ -46,7 +56,7 @@ public class CacheKeyUtil {
             String previewJson = mapper.writeValueAsString(previewData);
             String hash = sha256(previewJson);
             String key = "schema:" + hash;
-            System.out.println("Schema Cache Key = " + key);
+            log.debug("Schema Cache Key = {}", key);
             return key;
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate schema cache key", e);
@@ -63,7 +73,7 @@ public class CacheKeyUtil {
                 formatter.format("%02x", b);
             }
             String key = "schema-file:" + formatter;
-            System.out.println("Schema Cache Key (file) = " + key);
+            log.debug("Schema Cache Key (file) = {}", key);
             return key;
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate schema cache key from file", e);
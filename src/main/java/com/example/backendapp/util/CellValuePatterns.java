@@ -0,0 +1,48 @@
+package com.example.backendapp.util;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The value shapes the JSON to Excel writer recognises and formats as dates, date-times
+ * and percentages. Kept in one place so that everything deciding what a cell holds agrees
+ * with what will end up in the workbook.
+ */
+public class CellValuePatterns {
+
+    public static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    public static final Pattern DATETIME = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d+)?([zZ]|([+-])(\\d{2}):?(\\d{2}))?");
+
+    private static final Set<String> KEYWORDS_PERCENT = Set.of("percent", "rate", "share", "percentage", "discount");
+
+    public static boolean isDate(String trimmedValue) {
+        return DATE.matcher(trimmedValue).matches();
+    }
+
+    public static boolean isDateTime(String trimmedValue) {
+        return DATETIME.matcher(trimmedValue).matches();
+    }
+
+    /**
+     * Whether the value is written as a percentage, like {@code "12.5%"}.
+     */
+    public static boolean isPercent(String trimmedValue) {
+        if (!trimmedValue.endsWith("%")) {
+            return false;
+        }
+        try {
+            Double.parseDouble(trimmedValue.replace("%", ""));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether numbers under this header are percentages, going by words such as "rate" or "share".
+     */
+    public static boolean isPercentHeader(String header) {
+        String lowerHeader = header.toLowerCase();
+        return KEYWORDS_PERCENT.stream().anyMatch(lowerHeader::contains);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.backendapp.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Passes everything written to it on to a target stream while keeping a copy in a
+ * temp file, so a streamed response can be cached afterwards without ever holding it
+ * in heap while it is being written. Closing deletes the copy but leaves the target
+ * open.
+ */
+public final class DiskTeeOutputStream extends OutputStream {
+
+    private final OutputStream target;
+    private final Path copyPath;
+    private final OutputStream copy;
+    private long size;
+
+    private DiskTeeOutputStream(OutputStream target, Path copyPath, OutputStream copy) {
+        this.target = target;
+        this.copyPath = copyPath;
+        this.copy = copy;
+    }
+
+    public static DiskTeeOutputStream to(OutputStream target) throws IOException {
+        Path copyPath = Files.createTempFile("response-", ".tmp");
+        try {
+            return new DiskTeeOutputStream(target, copyPath, new BufferedOutputStream(Files.newOutputStream(copyPath)));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(copyPath);
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        target.write(b);
+        copy.write(b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        target.write(b, off, len);
+        copy.write(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        target.flush();
+        copy.flush();
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Opens everything written so far for reading; the stream must be closed before this one.
+     */
+    public InputStream openCopy() throws IOException {
+        copy.flush();
+        return Files.newInputStream(copyPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            target.flush();
+        } finally {
+            try {
+                copy.close();
+            } finally {
+                Files.deleteIfExists(copyPath);
+            }
+        }
+    }
+}
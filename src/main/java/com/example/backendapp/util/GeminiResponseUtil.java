@@ -16,16 +16,41 @@ public class GeminiResponseUtil {
                     .path("text")
                     .asText();
 
-            if (text.startsWith("```json")) {
-                return text.replaceFirst("(?s)```json\\s*", "")
-                        .replaceFirst("(?s)```\\s*$", "")
-                        .trim();
-            }
-
-            return text.trim();
+            return stripCodeFence(text);
 
         } catch (Exception e) {
             throw new RuntimeException("Failed to extract Gemini response: " + e.getMessage());
         }
     }
+
+    /**
+     * Returns the text of one event of a {@code streamGenerateContent} response, which is
+     * empty for events that only carry metadata such as the finish reason.
+     */
+    public static String extractTextFromStreamEvent(String event) {
+        try {
+            JsonNode parts = objectMapper.readTree(event).path("candidates").path(0)
+                    .path("content")
+                    .path("parts");
+
+            StringBuilder text = new StringBuilder();
+            for (JsonNode part : parts) {
+                text.append(part.path("text").asText(""));
+            }
+            return text.toString();
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to extract Gemini stream event: " + e.getMessage());
+        }
+    }
+
+    public static String stripCodeFence(String text) {
+        if (text.startsWith("```json")) {
+            return text.replaceFirst("(?s)```json\\s*", "")
+                    .replaceFirst("(?s)```\\s*$", "")
+                    .trim();
+        }
+
+        return text.trim();
+    }
 }
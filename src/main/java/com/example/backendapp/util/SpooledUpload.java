@@ -0,0 +1,90 @@
+package com.example.backendapp.util;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies an upload to a temp file and computes its SHA-256 in the same pass, so the
+ * content hash is available for cache lookups and the parser reads the local copy
+ * instead of consuming the upload a second time. Closing deletes the temp file; work that
+ * may outlive the request which spooled the upload takes its own reference with
+ * {@link #retain()} and closes it as well.
+ */
+public final class SpooledUpload implements AutoCloseable {
+
+    private final Path path;
+    private final String sha256;
+    private final long size;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private SpooledUpload(Path path, String sha256, long size) {
+        this.path = path;
+        this.sha256 = sha256;
+        this.size = size;
+    }
+
+    public static SpooledUpload of(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return of(in);
+        }
+    }
+
+    public static SpooledUpload of(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        Path path = Files.createTempFile("upload-", ".tmp");
+        try {
+            long size = Files.copy(new DigestInputStream(in, digest), path, StandardCopyOption.REPLACE_EXISTING);
+            return new SpooledUpload(path, HexFormat.of().formatHex(digest.digest()), size);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public InputStream openStream() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    public SpooledUpload retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (references.decrementAndGet() != 0) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {}
+    }
+}
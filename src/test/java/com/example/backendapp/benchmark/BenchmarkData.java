@@ -0,0 +1,160 @@
+package com.example.backendapp.benchmark;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Generates the workbooks and JSON documents the benchmarks run on. The shape is set by
+ * sheets x rows x columns; {@code numericShare} is the share of columns holding numbers
+ * rather than text, and {@code formulaDensity} the share of workbook columns computed by
+ * a formula. Data is seeded, so every run of a benchmark sees the same values.
+ */
+public final class BenchmarkData {
+
+    private static final long SEED = 20_240_101L;
+    private static final String[] WORDS = {"north", "south", "east", "west", "alpha", "beta", "gamma", "delta"};
+
+    private BenchmarkData() {
+    }
+
+    public static Workbook workbook(int sheets, int rows, int columns, double formulaDensity, double numericShare) {
+        Random random = new Random(SEED);
+        Workbook workbook = new XSSFWorkbook();
+        CellStyle dateStyle = workbook.createCellStyle();
+        dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+
+        for (int s = 0; s < sheets; s++) {
+            Sheet sheet = workbook.createSheet("Sheet" + (s + 1));
+            ColumnKind[] kinds = columnKinds(columns, numericShare);
+            boolean[] formulas = formulaColumns(columns, formulaDensity);
+
+            Row header = sheet.createRow(0);
+            for (int c = 0; c < columns; c++) {
+                header.createCell(c).setCellValue(kinds[c].header(c));
+            }
+
+            for (int r = 1; r <= rows; r++) {
+                Row row = sheet.createRow(r);
+                for (int c = 0; c < columns; c++) {
+                    Cell cell = row.createCell(c);
+                    if (formulas[c]) {
+                        // Column 0 is always a plain number, so every formula has a numeric input.
+                        String input = "A" + (r + 1);
+                        cell.setCellFormula(kinds[c] == ColumnKind.TEXT
+                                ? "IF(" + input + ">500,\"high\",\"low\")"
+                                : "ROUND(" + input + "*" + (c + 1) + "/7,2)");
+                        continue;
+                    }
+                    switch (kinds[c]) {
+                        case NUMBER -> cell.setCellValue(Math.round(random.nextDouble() * 100_000) / 100.0);
+                        case INTEGER -> cell.setCellValue(random.nextInt(1000));
+                        case DATE -> {
+                            cell.setCellValue(LocalDate.of(2020, 1, 1).plusDays(random.nextInt(1500)));
+                            cell.setCellStyle(dateStyle);
+                        }
+                        case BOOLEAN -> cell.setCellValue(random.nextBoolean());
+                        case TEXT -> cell.setCellValue(text(random));
+                    }
+                }
+            }
+        }
+
+        workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+        return workbook;
+    }
+
+    /**
+     * A JSON document with the same shapes as {@link #workbook}, as the JSON to Excel
+     * services receive it: numbers, ISO date and date-time strings, percent strings,
+     * booleans and free text.
+     */
+    public static Map<String, List<Map<String, Object>>> json(int sheets, int rows, int columns, double numericShare) {
+        Random random = new Random(SEED);
+        Map<String, List<Map<String, Object>>> data = new LinkedHashMap<>();
+
+        for (int s = 0; s < sheets; s++) {
+            ColumnKind[] kinds = columnKinds(columns, numericShare);
+            List<Map<String, Object>> sheetRows = new ArrayList<>(rows);
+            for (int r = 0; r < rows; r++) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (int c = 0; c < columns; c++) {
+                    row.put(kinds[c].header(c), jsonValue(kinds[c], c, random));
+                }
+                sheetRows.add(row);
+            }
+            data.put("Sheet" + (s + 1), sheetRows);
+        }
+        return data;
+    }
+
+    /**
+     * {@code count} single values of every kind {@link #json} produces, with the header
+     * each one sits under.
+     */
+    public static List<Map.Entry<String, Object>> cells(int count, double numericShare) {
+        Map<String, List<Map<String, Object>>> data = json(1, Math.max(1, count / 10), 10, numericShare);
+        List<Map.Entry<String, Object>> cells = new ArrayList<>(count);
+        for (Map<String, Object> row : data.values().iterator().next()) {
+            cells.addAll(row.entrySet());
+        }
+        return cells.subList(0, Math.min(count, cells.size()));
+    }
+
+    private static Object jsonValue(ColumnKind kind, int column, Random random) {
+        return switch (kind) {
+            case NUMBER -> Math.round(random.nextDouble() * 100_000) / 100.0;
+            case INTEGER -> random.nextInt(1000);
+            case DATE -> column % 2 == 0
+                    ? LocalDate.of(2020, 1, 1).plusDays(random.nextInt(1500)).toString()
+                    : LocalDate.of(2020, 1, 1).plusDays(random.nextInt(1500)) + "T12:30:00";
+            case BOOLEAN -> random.nextBoolean();
+            case TEXT -> column % 5 == 4 ? random.nextInt(100) + "%" : text(random);
+        };
+    }
+
+    private static String text(Random random) {
+        return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + random.nextInt(10_000);
+    }
+
+    // Columns alternate through the numeric kinds and the text-like kinds in proportion to numericShare.
+    private static ColumnKind[] columnKinds(int columns, double numericShare) {
+        ColumnKind[] numeric = {ColumnKind.INTEGER, ColumnKind.NUMBER};
+        ColumnKind[] other = {ColumnKind.TEXT, ColumnKind.DATE, ColumnKind.TEXT, ColumnKind.BOOLEAN};
+        ColumnKind[] kinds = new ColumnKind[columns];
+        int numericColumns = 0;
+        for (int c = 0; c < columns; c++) {
+            boolean isNumeric = c == 0 || numericColumns < Math.round((c + 1) * numericShare);
+            kinds[c] = isNumeric ? numeric[numericColumns++ % numeric.length] : other[(c - numericColumns) % other.length];
+        }
+        return kinds;
+    }
+
+    private static boolean[] formulaColumns(int columns, double formulaDensity) {
+        boolean[] formulas = new boolean[columns];
+        int formulaColumns = 0;
+        for (int c = 1; c < columns; c++) {
+            if (formulaColumns < Math.round(c * formulaDensity)) {
+                formulas[c] = true;
+                formulaColumns++;
+            }
+        }
+        return formulas;
+    }
+
+    private enum ColumnKind {
+        INTEGER, NUMBER, DATE, BOOLEAN, TEXT;
+
+        String header(int column) {
+            return switch (this) {
+                case INTEGER -> "Quantity " + column;
+                case NUMBER -> column % 3 == 0 ? "Discount rate " + column : "Amount " + column;
+                case DATE -> "Date " + column;
+                case BOOLEAN -> "Active " + column;
+                case TEXT -> "Name " + column;
+            };
+        }
+    }
+}
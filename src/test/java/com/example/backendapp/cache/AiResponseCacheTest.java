@@ -0,0 +1,66 @@
+package com.example.backendapp.cache;
+
+import com.example.backendapp.config.AiCacheConfig;
+import com.example.backendapp.config.CacheConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The two cache tiers together, with disk writes made on the background writer.
+ */
+class AiResponseCacheTest {
+
+    private static final String VALUE = "v".repeat(1000);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void responsesAreReadableAtOnceAndOnDiskAfterClosing() throws Exception {
+        AiResponseCache cache = open();
+        for (int i = 0; i < 300; i++) {
+            cache.cacheResponse("k" + i, VALUE + i);
+        }
+        assertEquals(VALUE + 299, cache.getCachedResponse("k299"));
+        cache.close();
+
+        AiResponseCache reopened = open();
+        try {
+            assertEquals(VALUE + 299, reopened.getCachedResponse("k299"));
+            assertNull(reopened.getCachedResponse("k0"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void responsesCachedAfterClosingStayInMemoryOnly() throws Exception {
+        AiResponseCache cache = open();
+        cache.close();
+        cache.cacheResponse("late", VALUE);
+        assertEquals(VALUE, cache.getCachedResponse("late"));
+
+        AiResponseCache reopened = open();
+        try {
+            assertNull(reopened.getCachedResponse("late"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private AiResponseCache open() {
+        AiCacheConfig config = new AiCacheConfig();
+        config.setDir(dir);
+        config.setMaxSize(DataSize.ofKilobytes(200));
+        config.setSegmentSize(DataSize.ofKilobytes(20));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new AiResponseCache(config, meterRegistry,
+                new CacheRegistry(new CacheConfig(), new CacheMonitor(meterRegistry), meterRegistry));
+    }
+}
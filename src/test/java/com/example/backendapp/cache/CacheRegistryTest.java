@@ -0,0 +1,82 @@
+package com.example.backendapp.cache;
+
+import com.example.backendapp.cache.CacheRegistry.Demand;
+import com.example.backendapp.config.CacheConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Division of the shared heap budget between caches, and settings overriding a cache's
+ * defaults.
+ */
+class CacheRegistryTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void idleCachesGetTheirMaximumWhileTheBudgetLasts() {
+        long[] sizes = CacheRegistry.divide(100 * MB, List.of(
+                new Demand(5 * MB, 50 * MB, 50 * MB, 0, 0),
+                new Demand(5 * MB, 50 * MB, 50 * MB, 0, 0)));
+
+        assertArrayEquals(new long[] {50 * MB, 50 * MB}, sizes);
+    }
+
+    @Test
+    void fullCacheEarningMoreHitsPerByteGrowsFirst() {
+        long[] sizes = CacheRegistry.divide(60 * MB, List.of(
+                new Demand(5 * MB, 50 * MB, 30 * MB, 29 * MB, 100),
+                new Demand(5 * MB, 50 * MB, 30 * MB, 29 * MB, 10_000)));
+
+        assertEquals(50 * MB, sizes[1]);
+        assertEquals(10 * MB, sizes[0]);
+    }
+
+    @Test
+    void cacheUsingLittleOnlyKeepsHeadroomUntilOthersAreServed() {
+        long[] sizes = CacheRegistry.divide(60 * MB, List.of(
+                new Demand(5 * MB, 50 * MB, 30 * MB, 8 * MB, 10_000),
+                new Demand(5 * MB, 50 * MB, 30 * MB, 30 * MB, 100)));
+
+        assertEquals(10 * MB, sizes[0]);
+        assertEquals(50 * MB, sizes[1]);
+    }
+
+    @Test
+    void minimumSizesAreKeptEvenPastTheBudget() {
+        long[] sizes = CacheRegistry.divide(6 * MB, List.of(
+                new Demand(5 * MB, 50 * MB, 50 * MB, 50 * MB, 100),
+                new Demand(5 * MB, 50 * MB, 50 * MB, 50 * MB, 0)));
+
+        assertArrayEquals(new long[] {5 * MB, 5 * MB}, sizes);
+    }
+
+    @Test
+    void specOverridesDefaultsAndCachesShareTheGlobalBudget() {
+        CacheConfig config = new CacheConfig();
+        config.setGlobalMaxSize(DataSize.ofMegabytes(30));
+        config.setRebalanceInterval(Duration.ZERO);
+        CacheConfig.Spec spec = new CacheConfig.Spec();
+        spec.setMaxSize(DataSize.ofMegabytes(20));
+        spec.setExpireAfterWrite(Duration.ofMinutes(1));
+        config.getSpecs().put("first", spec);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CacheRegistry registry = new CacheRegistry(config, new CacheMonitor(meterRegistry), meterRegistry);
+        CacheRegistry.Defaults defaults = CacheRegistry.Defaults.idleFor(DataSize.ofMegabytes(50), Duration.ofMinutes(5));
+        Cache<String, byte[]> first = registry.heapCache("first", defaults, (String key, byte[] value) -> value.length);
+        Cache<String, byte[]> second = registry.heapCache("second", defaults, (String key, byte[] value) -> value.length);
+
+        assertEquals(20 * MB, first.policy().eviction().orElseThrow().getMaximum());
+        assertEquals(10 * MB, second.policy().eviction().orElseThrow().getMaximum());
+        assertTrue(first.policy().expireAfterWrite().isPresent());
+        assertEquals(Duration.ofMinutes(5), second.policy().expireAfterAccess().orElseThrow().getExpiresAfter());
+    }
+}
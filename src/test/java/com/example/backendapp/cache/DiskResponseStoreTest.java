@@ -0,0 +1,121 @@
+package com.example.backendapp.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads, eviction and recovery of the segment files behind the persistent AI cache tier.
+ */
+class DiskResponseStoreTest {
+
+    private static final long MAX_BYTES = 200_000;
+    private static final long SEGMENT_BYTES = 20_000;
+    private static final String VALUE = "v".repeat(1000);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void latestValueIsReadBackAfterReopening() throws Exception {
+        try (DiskResponseStore store = open()) {
+            store.put("a", VALUE);
+            store.put("b", VALUE + "b");
+            store.put("a", "replaced");
+        }
+
+        try (DiskResponseStore store = open()) {
+            assertEquals("replaced", store.get("a"));
+            assertEquals(VALUE + "b", store.get("b"));
+            assertNull(store.get("missing"));
+        }
+    }
+
+    @Test
+    void filesStayWithinTheLimitAndRecentlyReadEntriesSurvive() throws Exception {
+        try (DiskResponseStore store = open()) {
+            for (int i = 0; i < 400; i++) {
+                store.put("k" + i, VALUE + i);
+                store.get("k0");
+                if (store.needsCompaction()) {
+                    store.compact();
+                }
+            }
+
+            assertTrue(store.diskBytes() <= MAX_BYTES, "disk bytes " + store.diskBytes());
+            assertEquals(VALUE + 0, store.get("k0"));
+            assertEquals(VALUE + 399, store.get("k399"));
+            assertNull(store.get("k100"));
+        }
+    }
+
+    @Test
+    void writesOnlyFlagCompactionAndLeaveItToTheOwner() throws Exception {
+        try (DiskResponseStore store = open()) {
+            for (int i = 0; i < 250; i++) {
+                store.put("k" + i, VALUE + i);
+            }
+            assertTrue(store.needsCompaction());
+            assertTrue(store.diskBytes() > MAX_BYTES, "disk bytes " + store.diskBytes());
+
+            store.compact();
+
+            assertFalse(store.needsCompaction());
+            assertTrue(store.diskBytes() <= MAX_BYTES, "disk bytes " + store.diskBytes());
+            assertEquals(VALUE + 249, store.get("k249"));
+            assertNull(store.get("k0"));
+        }
+    }
+
+    @Test
+    void halfWrittenRecordAtTheEndIsCutOff() throws Exception {
+        try (DiskResponseStore store = open()) {
+            store.put("a", VALUE);
+        }
+        try (FileChannel channel = FileChannel.open(lastSegment(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0x41, 0x49, 0x43, 0x31, 0, 0, 0}));
+        }
+
+        try (DiskResponseStore store = open()) {
+            assertEquals(VALUE, store.get("a"));
+            store.put("b", "after");
+            assertEquals("after", store.get("b"));
+        }
+        try (DiskResponseStore store = open()) {
+            assertEquals("after", store.get("b"));
+        }
+    }
+
+    @Test
+    void corruptedValueIsAMiss() throws Exception {
+        try (DiskResponseStore store = open()) {
+            store.put("a", VALUE);
+        }
+        try (FileChannel channel = FileChannel.open(lastSegment(), StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'x'}), channel.size() - 1);
+        }
+
+        try (DiskResponseStore store = open()) {
+            assertNull(store.get("a"));
+        }
+    }
+
+    private DiskResponseStore open() throws Exception {
+        return DiskResponseStore.open(dir, MAX_BYTES, SEGMENT_BYTES);
+    }
+
+    private Path lastSegment() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.max(Comparator.naturalOrder()).orElseThrow();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.backendapp.cache;
+
+import com.example.backendapp.config.CacheConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Conversion results kept deflated and inflated again on the way out.
+ */
+class ExcelToJsonCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private CacheMonitor cacheMonitor;
+    private ExcelToJsonCache cache;
+
+    @BeforeEach
+    void createCache() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        cacheMonitor = new CacheMonitor(meterRegistry);
+        cache = new ExcelToJsonCache(new CacheRegistry(new CacheConfig(), cacheMonitor, meterRegistry));
+    }
+
+    @Test
+    void jsonComesBackAsWrittenAndIsStoredCompressed() throws Exception {
+        Map<String, List<Map<String, Object>>> workbook = Map.of("Sheet1", rows(20_000));
+        String json = objectMapper.writeValueAsString(workbook);
+        cache.put("key", out -> objectMapper.writeValue(out, workbook));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(cache.writeTo("key", out));
+        assertEquals(json, out.toString(StandardCharsets.UTF_8));
+        try (InputStream in = cache.open("key")) {
+            assertEquals(json, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        Cache<String, ?> stored = cacheMonitor.getCaches().get("excel-to-json");
+        stored.cleanUp();
+        long storedBytes = stored.policy().eviction().orElseThrow().weightedSize().orElseThrow();
+        assertTrue(storedBytes * 4 < json.length(), "stored " + storedBytes + " of " + json.length());
+    }
+
+    @Test
+    void missReturnsNothing() throws Exception {
+        assertNull(cache.open("missing"));
+        assertFalse(cache.writeTo("missing", new ByteArrayOutputStream()));
+    }
+
+    private static List<Map<String, Object>> rows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("Customer Name", "Name " + i);
+            row.put("Amount", i * 1.37);
+            row.put("Date", "2024-01-" + (i % 28 + 1));
+            row.put("Region", List.of("North", "South", "East").get(i % 3));
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.backendapp.cache;
+
+import com.example.backendapp.config.CacheConfig;
+import com.example.backendapp.config.JsonToExcelCacheConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Workbooks stored in and read back from the block pool, including after blocks have
+ * been freed by eviction and handed to other entries.
+ */
+class JsonToExcelCacheTest {
+
+    private JsonToExcelCache cache;
+
+    @BeforeEach
+    void createCache() {
+        JsonToExcelCacheConfig config = new JsonToExcelCacheConfig();
+        config.setMaxSize(DataSize.ofMegabytes(32));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        cache = new JsonToExcelCache(config,
+                new CacheRegistry(new CacheConfig(), new CacheMonitor(meterRegistry), meterRegistry));
+    }
+
+    @Test
+    void workbookIsReadBackWhicheverWayItWasStored() throws Exception {
+        byte[] fromArray = bytes(1, 200_000);
+        byte[] fromStream = bytes(2, 64 * 1024);
+        cache.put("array", fromArray);
+        cache.put("stream", new ByteArrayInputStream(fromStream), fromStream.length);
+        cache.put("empty", new byte[0]);
+
+        assertArrayEquals(fromArray, cache.get("array"));
+        assertArrayEquals(fromStream, writtenTo("stream"));
+        assertArrayEquals(new byte[0], cache.get("empty"));
+        assertNull(cache.get("missing"));
+        assertFalse(cache.writeTo("missing", new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void replacingAnEntryFreesTheOldBlocks() {
+        cache.put("key", bytes(3, 3_000_000));
+        byte[] replacement = {1, 2, 3};
+        cache.put("key", replacement);
+
+        assertArrayEquals(replacement, cache.get("key"));
+    }
+
+    @Test
+    void workbooksLargerThanAQuarterOfTheCacheAreNotStored() {
+        cache.put("large", new byte[9_000_000]);
+
+        assertNull(cache.get("large"));
+    }
+
+    @Test
+    void evictionMakesRoomWithoutCorruptingRemainingEntries() throws Exception {
+        Random random = new Random(42);
+        Map<String, byte[]> written = new LinkedHashMap<>();
+        for (int i = 0; i < 40; i++) {
+            byte[] workbook = bytes(i, random.nextInt(3_000_000) + 1);
+            written.put("k" + i, workbook);
+            cache.put("k" + i, workbook);
+        }
+
+        int hits = 0;
+        for (Map.Entry<String, byte[]> entry : written.entrySet()) {
+            byte[] cached = cache.get(entry.getKey());
+            if (cached != null) {
+                hits++;
+                assertArrayEquals(entry.getValue(), cached, entry.getKey());
+                assertArrayEquals(entry.getValue(), writtenTo(entry.getKey()), entry.getKey());
+            }
+        }
+        assertTrue(hits > 5 && hits < written.size(), "hits " + hits);
+        assertArrayEquals(written.get("k39"), cache.get("k39"));
+    }
+
+    private byte[] writtenTo(String key) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(cache.writeTo(key, out));
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
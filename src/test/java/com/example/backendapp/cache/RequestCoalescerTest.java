@@ -0,0 +1,85 @@
+package com.example.backendapp.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sharing of in-flight work between callers with the same key, driven by sinks so each
+ * step happens in a known order.
+ */
+class RequestCoalescerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RequestCoalescer coalescer = new RequestCoalescer(meterRegistry);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    void concurrentCallersShareOneRun() {
+        Sinks.One<String> result = Sinks.one();
+        CompletableFuture<String> first = coalescer.coalesce("key", () -> run(result)).toFuture();
+        CompletableFuture<String> second = coalescer.coalesce("key", () -> run(Sinks.one())).toFuture();
+        CompletableFuture<String> other = coalescer.coalesce("other", () -> run(Sinks.one())).toFuture();
+
+        result.tryEmitValue("value");
+
+        assertEquals("value", first.join());
+        assertEquals("value", second.join());
+        assertFalse(other.isDone());
+        assertEquals(2, runs.get());
+        assertEquals(1, meterRegistry.get("requests.coalesced").counter().count());
+    }
+
+    @Test
+    void finishedWorkIsNotShared() {
+        assertEquals("first", coalescer.coalesce("key", () -> run(Mono.just("first"))).block());
+        assertEquals("second", coalescer.coalesce("key", () -> run(Mono.just("second"))).block());
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void errorsAreNotSharedWithLaterCallers() {
+        Mono<String> failing = coalescer.coalesce("key", () -> run(Mono.error(new IllegalStateException("failed"))));
+        assertThrows(IllegalStateException.class, failing::block);
+
+        assertEquals("ok", coalescer.coalesce("key", () -> run(Mono.just("ok"))).block());
+    }
+
+    @Test
+    void workContinuesWhileAnyCallerWaits() {
+        Sinks.One<String> result = Sinks.one();
+        Disposable first = coalescer.coalesce("key", () -> run(result)).subscribe();
+        CompletableFuture<String> second = coalescer.coalesce("key", () -> run(Sinks.one())).toFuture();
+
+        first.dispose();
+        result.tryEmitValue("value");
+
+        assertEquals("value", second.join());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void workCancelledByEveryCallerIsStartedAfresh() {
+        Disposable only = coalescer.coalesce("key", () -> run(Sinks.one())).subscribe();
+        only.dispose();
+
+        assertEquals("fresh", coalescer.coalesce("key", () -> run(Mono.just("fresh"))).block());
+        assertEquals(2, runs.get());
+    }
+
+    private Mono<String> run(Sinks.One<String> result) {
+        return run(result.asMono());
+    }
+
+    private Mono<String> run(Mono<String> result) {
+        runs.incrementAndGet();
+        return result;
+    }
+}
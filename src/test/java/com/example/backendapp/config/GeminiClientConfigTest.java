@@ -0,0 +1,132 @@
+package com.example.backendapp.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+import reactor.netty.internal.shaded.reactor.pool.PoolAcquirePendingLimitException;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the Gemini client against a local stub server that holds every response until
+ * the test releases it, to check how the pool behaves once it is saturated.
+ */
+class GeminiClientConfigTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger received = new AtomicInteger();
+
+    private HttpServer server;
+    private ConnectionProvider connectionProvider;
+    private WebClient webClient;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/slow", exchange -> {
+            received.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"ok\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.createContext("/large", exchange -> {
+            byte[] body = new byte[64 * 1024];
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        Metrics.addRegistry(meterRegistry);
+
+        GeminiConfig geminiConfig = new GeminiConfig();
+        geminiConfig.setBaseUrl("http://localhost:" + server.getAddress().getPort());
+        geminiConfig.getHttp().setMaxConnections(2);
+        geminiConfig.getHttp().setPendingAcquireMaxCount(1);
+        geminiConfig.getHttp().setMaxInMemorySize(DataSize.ofKilobytes(16));
+
+        GeminiClientConfig clientConfig = new GeminiClientConfig();
+        connectionProvider = clientConfig.geminiConnectionProvider(geminiConfig);
+        webClient = clientConfig.geminiWebClient(WebClient.builder(), geminiConfig, connectionProvider);
+    }
+
+    @AfterEach
+    void stopServer() {
+        release.countDown();
+        connectionProvider.dispose();
+        server.stop(0);
+        Metrics.removeRegistry(meterRegistry);
+    }
+
+    @Test
+    void saturatedPoolQueuesUpToTheLimitThenRejects() throws Exception {
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            calls.add(get("/slow").toFuture());
+        }
+        awaitCondition(() -> received.get() == 2 && pendingConnections() == 1);
+
+        Throwable rejected = assertThrows(WebClientRequestException.class, () -> get("/slow").block(Duration.ofSeconds(5)));
+        assertInstanceOf(PoolAcquirePendingLimitException.class, rejected.getCause());
+        assertEquals(2, received.get());
+
+        release.countDown();
+        for (CompletableFuture<String> call : calls) {
+            assertEquals("{\"ok\":true}", call.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(3, received.get());
+    }
+
+    @Test
+    void responsesAboveTheBufferLimitFail() {
+        Throwable error = assertThrows(RuntimeException.class, () -> get("/large").block(Duration.ofSeconds(5)));
+        assertInstanceOf(DataBufferLimitException.class, error.getCause());
+    }
+
+    private Mono<String> get(String path) {
+        return webClient.get().uri(path).retrieve().bodyToMono(String.class);
+    }
+
+    private double pendingConnections() {
+        Gauge gauge = meterRegistry.find("reactor.netty.connection.provider.pending.connections")
+                .tag("name", "gemini")
+                .gauge();
+        return gauge != null ? gauge.value() : -1;
+    }
+
+    private static void awaitCondition(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not reached in time");
+            Thread.sleep(20);
+        }
+    }
+}
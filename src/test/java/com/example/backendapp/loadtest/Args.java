@@ -0,0 +1,45 @@
+package com.example.backendapp.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the form {@code --name=value}.
+ */
+final class Args {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    Args(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                values.put(arg.substring(2), "true");
+            } else {
+                values.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+    }
+
+    String string(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    int integer(String name, int defaultValue) {
+        return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+    }
+
+    double decimal(String name, double defaultValue) {
+        return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+    }
+
+    Duration duration(String name, Duration defaultValue) {
+        return values.containsKey(name) ? DurationStyle.detectAndParse(values.get(name)) : defaultValue;
+    }
+}
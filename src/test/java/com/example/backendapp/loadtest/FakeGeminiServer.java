@@ -0,0 +1,181 @@
+package com.example.backendapp.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the Gemini API. It answers {@code generateContent} and
+ * {@code streamGenerateContent} (as server-sent events) by echoing the JSON in the prompt,
+ * which is what a model asked to clean already clean data would do. The time to the first
+ * byte follows a log-normal distribution with the given median and 99th percentile, and a
+ * share of calls is answered 429 or 503 instead.
+ * <p>
+ * Run it on its own with {@code --port}, {@code --latency-median}, {@code --latency-p99},
+ * {@code --rate-429}, {@code --rate-503}, {@code --piece-chars} and {@code --piece-delay},
+ * and point {@code gemini.base-url} at it.
+ */
+public class FakeGeminiServer {
+
+    // The 99th percentile of the standard normal distribution.
+    private static final double Z_99 = 2.3263;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public record Settings(Duration latencyMedian, Duration latencyP99, double rate429, double rate503,
+                           int pieceChars, Duration pieceDelay) {
+
+        static Settings from(Args args) {
+            return new Settings(
+                    args.duration("latency-median", Duration.ofMillis(800)),
+                    args.duration("latency-p99", Duration.ofSeconds(5)),
+                    args.decimal("rate-429", 0.02),
+                    args.decimal("rate-503", 0.005),
+                    args.integer("piece-chars", 400),
+                    args.duration("piece-delay", Duration.ofMillis(20)));
+        }
+    }
+
+    private final Settings settings;
+    private final double sigma;
+    private final HttpServer server;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong unavailable = new AtomicLong();
+
+    public FakeGeminiServer(Settings settings, int port) throws IOException {
+        this.settings = settings;
+        this.sigma = Math.log((double) Math.max(1, settings.latencyP99().toMillis())
+                / Math.max(1, settings.latencyMedian().toMillis())) / Z_99;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Args options = new Args(args);
+        FakeGeminiServer server = new FakeGeminiServer(Settings.from(options), options.integer("port", 8089));
+        server.start();
+        System.out.println("Fake Gemini listening on " + server.baseUrl());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public long getUnavailable() {
+        return unavailable.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            calls.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            String prompt = promptOf(exchange.getRequestBody().readAllBytes());
+
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < settings.rate429()) {
+                throttled.incrementAndGet();
+                respond(exchange, 429, "{\"error\":{\"code\":429,\"status\":\"RESOURCE_EXHAUSTED\"}}");
+                return;
+            }
+            if (roll < settings.rate429() + settings.rate503()) {
+                unavailable.incrementAndGet();
+                respond(exchange, 503, "{\"error\":{\"code\":503,\"status\":\"UNAVAILABLE\"}}");
+                return;
+            }
+
+            Thread.sleep(sampleLatency());
+            String answer = "```json\n" + echo(prompt) + "\n```";
+            if (path.endsWith(":streamGenerateContent")) {
+                stream(exchange, answer);
+            } else if (path.endsWith(":generateContent")) {
+                respond(exchange, 200, objectMapper.writeValueAsString(candidate(answer, true)));
+            } else {
+                respond(exchange, 404, "{\"error\":{\"code\":404,\"status\":\"NOT_FOUND\"}}");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stream(HttpExchange exchange, String answer) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        int pieceChars = Math.max(1, settings.pieceChars());
+        for (int start = 0; start < answer.length(); start += pieceChars) {
+            if (start > 0) {
+                Thread.sleep(settings.pieceDelay());
+            }
+            String piece = answer.substring(start, Math.min(answer.length(), start + pieceChars));
+            boolean last = start + pieceChars >= answer.length();
+            out.write(("data: " + objectMapper.writeValueAsString(candidate(piece, last)) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    private long sampleLatency() {
+        double gaussian = ThreadLocalRandom.current().nextGaussian();
+        return Math.round(settings.latencyMedian().toMillis() * Math.exp(sigma * gaussian));
+    }
+
+    private static String promptOf(byte[] body) throws IOException {
+        JsonNode request = objectMapper.readTree(body);
+        return request.path("contents").path(0).path("parts").path(0).path("text").asText("");
+    }
+
+    // Everything from the first bracket on is the data the prompt asked about.
+    private static String echo(String prompt) {
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = prompt.charAt(i);
+            if (c == '{' || c == '[') {
+                return prompt.substring(i);
+            }
+        }
+        return "{}";
+    }
+
+    private static Map<String, Object> candidate(String text, boolean last) {
+        Map<String, Object> content = Map.of("role", "model", "parts", List.of(Map.of("text", text)));
+        return Map.of("candidates", List.of(last
+                ? Map.of("content", content, "finishReason", "STOP")
+                : Map.of("content", content)));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
@@ -0,0 +1,402 @@
+package com.example.backendapp.loadtest;
+
+import com.example.backendapp.BackendAppApplication;
+import com.example.backendapp.benchmark.BenchmarkData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a mix of conversions against the application and reports latency percentiles,
+ * throughput and, when the application runs in this JVM, heap and GC figures.
+ * <p>
+ * By default it starts a {@link FakeGeminiServer} and the application itself with
+ * {@code gemini.base-url} pointing at it. {@code --target=http://host:port} drives an
+ * application that is already running instead. Options:
+ * <ul>
+ *     <li>{@code --concurrency} clients sending requests back to back (16)</li>
+ *     <li>{@code --duration} of the measured run (60s), after {@code --warmup} (15s)</li>
+ *     <li>{@code --distinct-files} variants of each generated file (20), so that not
+ *     every request is answered from the result caches</li>
+ *     <li>{@code --ai=false} to leave out the AI conversions</li>
+ *     <li>the {@link FakeGeminiServer} options, for the in-process server</li>
+ * </ul>
+ */
+public class LoadTest {
+
+    private static final String BOUNDARY = "load-test-boundary";
+    private static final String XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    private static final String JSON = "application/json";
+
+    private record Size(String name, int weight, int sheets, int rows, int columns) {}
+
+    private record Scenario(String name, int weight, List<Size> sizes, Request request) {}
+
+    @FunctionalInterface
+    private interface Request {
+        HttpRequest.Builder build(URI base, Size size, int variant) throws Exception;
+    }
+
+    private static final Size SMALL = new Size("small", 70, 1, 50, 8);
+    private static final Size MEDIUM = new Size("medium", 25, 2, 2000, 12);
+    private static final Size LARGE = new Size("large", 5, 2, 10000, 20);
+    // AI conversions are limited in size, so they get their own, smaller medium.
+    private static final Size AI_MEDIUM = new Size("medium", 25, 1, 400, 8);
+
+    private final Args args;
+    private final int distinctFiles;
+    private final Map<String, byte[]> files = new HashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private LoadTest(Args args) {
+        this.args = args;
+        this.distinctFiles = Math.max(1, args.integer("distinct-files", 20));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest(new Args(args)).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        String target = args.string("target", null);
+        FakeGeminiServer gemini = null;
+        ConfigurableApplicationContext app = null;
+
+        if (target == null) {
+            gemini = new FakeGeminiServer(FakeGeminiServer.Settings.from(args), 0);
+            gemini.start();
+            app = startApplication(gemini.baseUrl());
+            target = "http://localhost:" + app.getEnvironment().getProperty("local.server.port");
+        }
+
+        List<Scenario> scenarios = scenarios(args.string("ai", "true").equals("true"));
+        System.out.printf("Generating files (%d variants each)...%n", distinctFiles);
+        prepareFiles(scenarios);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        URI base = URI.create(target);
+        Duration warmup = args.duration("warmup", Duration.ofSeconds(15));
+        Duration duration = args.duration("duration", Duration.ofSeconds(60));
+        int concurrency = args.integer("concurrency", 16);
+
+        System.out.printf("Warming up for %s against %s...%n", warmup, target);
+        drive(client, base, scenarios, concurrency, warmup, null);
+
+        System.out.printf("Measuring for %s with %d clients...%n", duration, concurrency);
+        JvmStats jvm = app != null ? JvmStats.start() : null;
+        Map<String, Recorder> results = new TreeMap<>();
+        long started = System.nanoTime();
+        drive(client, base, scenarios, concurrency, duration, results);
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        report(results, seconds);
+        if (jvm != null) {
+            jvm.stopAndReport(seconds);
+        } else {
+            System.out.println("Heap and GC figures are only available when the application runs in this JVM.");
+        }
+        if (gemini != null) {
+            System.out.printf("Fake Gemini: %d calls, %d answered 429, %d answered 503%n",
+                    gemini.getCalls(), gemini.getThrottled(), gemini.getUnavailable());
+            app.close();
+            gemini.stop();
+        }
+    }
+
+    private ConfigurableApplicationContext startApplication(String geminiUrl) throws Exception {
+        Properties properties = new Properties();
+        properties.put("server.port", "0");
+        properties.put("gemini.base-url", geminiUrl);
+        properties.put("gemini.api-key", "load-test");
+        properties.put("gemini.model", "fake-model");
+        properties.put("rate-limit.requests-per-minute", "100000000");
+        properties.put("ai-cache.disk.dir", Files.createTempDirectory("load-test-ai-cache").toString());
+        properties.put("spring.servlet.multipart.max-file-size", "100MB");
+        properties.put("spring.servlet.multipart.max-request-size", "101MB");
+        properties.put("spring.mvc.async.request-timeout", "120s");
+        properties.put("logging.level.root", "WARN");
+        return new SpringApplicationBuilder(BackendAppApplication.class)
+                .properties(properties)
+                .run();
+    }
+
+    private List<Scenario> scenarios(boolean ai) {
+        List<Size> sizes = List.of(SMALL, MEDIUM, LARGE);
+        List<Size> aiSizes = List.of(SMALL, AI_MEDIUM);
+        List<Scenario> scenarios = new ArrayList<>(List.of(
+                new Scenario("excel-to-json", 30, sizes, (base, size, variant) ->
+                        multipart(base.resolve("/excel-to-json"), "data.xlsx", XLSX, xlsx(size, variant))),
+                new Scenario("json-to-excel", 20, sizes, (base, size, variant) ->
+                        multipart(base.resolve("/json-to-excel"), "data.json", JSON, json(size, variant))),
+                new Scenario("json-to-excel/raw", 25, sizes, (base, size, variant) ->
+                        HttpRequest.newBuilder(base.resolve("/json-to-excel/raw"))
+                                .header("Content-Type", JSON)
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(json(size, variant)))),
+                new Scenario("generate-schema", 10, List.of(SMALL, MEDIUM), (base, size, variant) ->
+                        multipart(base.resolve("/generate-schema"), "data.xlsx", XLSX, xlsx(size, variant)))));
+        if (ai) {
+            scenarios.add(new Scenario("excel-to-json useAI", 10, aiSizes, (base, size, variant) ->
+                    multipart(base.resolve("/excel-to-json?useAI=true"), "data.xlsx", XLSX, xlsx(size, variant))));
+            scenarios.add(new Scenario("json-to-excel useAI", 5, aiSizes, (base, size, variant) ->
+                    multipart(base.resolve("/json-to-excel?useAI=true"), "data.json", JSON, json(size, variant))));
+        }
+        return scenarios;
+    }
+
+    private void prepareFiles(List<Scenario> scenarios) throws Exception {
+        URI base = URI.create("http://localhost");
+        for (Scenario scenario : scenarios) {
+            for (Size size : scenario.sizes()) {
+                for (int variant = 0; variant < variants(size); variant++) {
+                    scenario.request().build(base, size, variant);
+                }
+            }
+        }
+    }
+
+    private void drive(HttpClient client, URI base, List<Scenario> scenarios, int concurrency,
+                       Duration duration, Map<String, Recorder> results) throws InterruptedException {
+        long deadline = System.nanoTime() + duration.toNanos();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                clients.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        send(client, base, scenarios, results);
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    private void send(HttpClient client, URI base, List<Scenario> scenarios, Map<String, Recorder> results) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Scenario scenario = pick(scenarios, Scenario::weight, random);
+        Size size = pick(scenario.sizes(), Size::weight, random);
+        int variant = random.nextInt(variants(size));
+
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            HttpRequest request = scenario.request().build(base, size, variant)
+                    .timeout(Duration.ofMinutes(5))
+                    .build();
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() >= 400) {
+                String body = new String(response.body(), StandardCharsets.UTF_8);
+                error = response.statusCode() + " " + body.substring(0, Math.min(200, body.length()));
+            }
+        } catch (Exception e) {
+            error = e.toString();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (results != null) {
+            synchronized (results) {
+                results.computeIfAbsent(scenario.name() + " " + size.name(), name -> new Recorder())
+                        .record(elapsed, error);
+            }
+        }
+    }
+
+    private int variants(Size size) {
+        // Large files are slow to generate and hold a lot of memory; a few are enough.
+        return size == LARGE ? Math.max(1, distinctFiles / 10) : distinctFiles;
+    }
+
+    private byte[] xlsx(Size size, int variant) throws Exception {
+        String key = "xlsx:" + size.name() + size.rows() + ":" + variant;
+        synchronized (files) {
+            byte[] cached = files.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // The row count varies with the variant so each variant has different content.
+        try (Workbook workbook = BenchmarkData.workbook(size.sheets(), size.rows() + variant, size.columns(), 0.1, 0.5);
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            workbook.write(out);
+            synchronized (files) {
+                files.put(key, out.toByteArray());
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private byte[] json(Size size, int variant) throws Exception {
+        String key = "json:" + size.name() + size.rows() + ":" + variant;
+        synchronized (files) {
+            byte[] cached = files.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] bytes = objectMapper.writeValueAsBytes(
+                BenchmarkData.json(size.sheets(), size.rows() + variant, size.columns(), 0.5));
+        synchronized (files) {
+            files.put(key, bytes);
+        }
+        return bytes;
+    }
+
+    private static HttpRequest.Builder multipart(URI uri, String filename, String contentType, byte[] content) {
+        String head = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n\r\n";
+        String tail = "\r\n--" + BOUNDARY + "--\r\n";
+        return HttpRequest.newBuilder(uri)
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(
+                        head.getBytes(StandardCharsets.UTF_8), content, tail.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private static <T> T pick(List<T> options, java.util.function.ToIntFunction<T> weight, ThreadLocalRandom random) {
+        int total = options.stream().mapToInt(weight).sum();
+        int roll = random.nextInt(total);
+        for (T option : options) {
+            roll -= weight.applyAsInt(option);
+            if (roll < 0) {
+                return option;
+            }
+        }
+        return options.getLast();
+    }
+
+    private static void report(Map<String, Recorder> results, double seconds) {
+        Recorder all = new Recorder();
+        System.out.println();
+        System.out.printf("%-32s %8s %7s %9s %9s %9s %9s %9s%n",
+                "scenario", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, Recorder> result : results.entrySet()) {
+            result.getValue().print(result.getKey(), seconds);
+            all.addAll(result.getValue());
+        }
+        all.print("all", seconds);
+        System.out.println();
+        for (Map.Entry<String, Recorder> result : results.entrySet()) {
+            if (result.getValue().firstError != null) {
+                System.out.printf("First error of %s: %s%n", result.getKey(), result.getValue().firstError);
+            }
+        }
+    }
+
+    /** Latencies and errors of one scenario. */
+    private static final class Recorder {
+
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+        private String firstError;
+
+        void record(long nanos, String error) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            if (error != null) {
+                errors++;
+                if (firstError == null) {
+                    firstError = error;
+                }
+            }
+        }
+
+        void addAll(Recorder other) {
+            for (int i = 0; i < other.count; i++) {
+                record(other.latencies[i], null);
+            }
+            errors += other.errors;
+        }
+
+        void print(String name, double seconds) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            System.out.printf("%-32s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    name, count, errors, count / seconds,
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    count == 0 ? 0.0 : sorted[count - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+
+    /**
+     * Heap and GC activity of this JVM over the measured run. They include the load test
+     * itself and the fake Gemini server, which are small next to the conversions.
+     */
+    private static final class JvmStats {
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final Map<String, long[]> gcBefore = new LinkedHashMap<>();
+        private final long allocatedBefore;
+        private final AtomicLong peakHeap = new AtomicLong();
+        private final Thread sampler;
+
+        private JvmStats() {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcBefore.put(gc.getName(), new long[]{gc.getCollectionCount(), gc.getCollectionTime()});
+            }
+            allocatedBefore = allocatedBytes();
+            sampler = Thread.ofPlatform().daemon().start(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+        }
+
+        static JvmStats start() {
+            return new JvmStats();
+        }
+
+        void stopAndReport(double seconds) {
+            sampler.interrupt();
+            long allocated = allocatedBytes() - allocatedBefore;
+            System.out.printf("Heap: peak %.0f MB used of %.0f MB max; allocation rate %.1f MB/s%n",
+                    peakHeap.get() / 1e6, memory.getHeapMemoryUsage().getMax() / 1e6, allocated / 1e6 / seconds);
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                long[] before = gcBefore.getOrDefault(gc.getName(), new long[2]);
+                System.out.printf("GC %-24s %6d collections %8d ms%n", gc.getName(),
+                        gc.getCollectionCount() - before[0], gc.getCollectionTime() - before[1]);
+            }
+        }
+
+        private static long allocatedBytes() {
+            return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                    ? threads.getTotalThreadAllocatedBytes()
+                    : 0;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.backendapp.service.exceljson;
+
+import com.example.backendapp.cache.AiResponseCache;
+import com.example.backendapp.cache.CacheMonitor;
+import com.example.backendapp.cache.CacheRegistry;
+import com.example.backendapp.config.AiCacheConfig;
+import com.example.backendapp.config.CacheConfig;
+import com.example.backendapp.config.GeminiConfig;
+import com.example.backendapp.service.gemini.ChunkPlanner;
+import com.example.backendapp.service.gemini.ColumnProfiler;
+import com.example.backendapp.service.gemini.GeminiScheduler;
+import com.example.backendapp.service.gemini.GeminiStreamClient;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Putting the model's answers back into the workbook, with a fake Gemini client that
+ * upper-cases the rows it is sent and can drop, add and reorder rows like a real model.
+ */
+class AiExcelToJsonServiceTest {
+
+    private static final TypeReference<Map<String, List<Map<String, Object>>>> CHUNK_TYPE = new TypeReference<>() {};
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final GeminiConfig geminiConfig = new GeminiConfig();
+    private final GeminiScheduler geminiScheduler = new GeminiScheduler(geminiConfig, meterRegistry);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void cleanedRowsReplaceTheRowsTheyWereSentFor() {
+        Map<String, List<Map<String, Object>>> workbook = workbook();
+
+        Map<String, List<Map<String, Object>>> enhanced = enhance(workbook, rows -> rows);
+
+        assertEquals(List.copyOf(workbook.keySet()), List.copyOf(enhanced.keySet()));
+        for (String sheet : workbook.keySet()) {
+            assertEquals(upperCased(workbook.get(sheet)), enhanced.get(sheet), sheet);
+        }
+    }
+
+    @Test
+    void rowsTheModelDroppedOrAddedDoNotShiftTheOthers() {
+        Map<String, List<Map<String, Object>>> workbook = workbook();
+
+        Map<String, List<Map<String, Object>>> enhanced = enhance(workbook, rows -> {
+            List<Map<String, Object>> answer = new ArrayList<>(rows);
+            answer.remove(1);
+            answer.add(2, Map.of("Name", "MADE UP"));
+            answer.add(answer.get(3));
+            return answer;
+        });
+
+        for (String sheet : workbook.keySet()) {
+            List<Map<String, Object>> expected = upperCased(workbook.get(sheet));
+            expected.set(1, workbook.get(sheet).get(1));
+            assertEquals(expected, enhanced.get(sheet), sheet);
+        }
+    }
+
+    private Map<String, List<Map<String, Object>>> enhance(Map<String, List<Map<String, Object>>> workbook,
+                                                           UnaryOperator<List<Map<String, Object>>> model) {
+        AiCacheConfig cacheConfig = new AiCacheConfig();
+        cacheConfig.setEnabled(false);
+        AiResponseCache aiResponseCache = new AiResponseCache(cacheConfig, meterRegistry,
+                new CacheRegistry(new CacheConfig(), new CacheMonitor(meterRegistry), meterRegistry));
+
+        AiExcelToJsonService service = new AiExcelToJsonService(new FakeGeminiClient(model), aiResponseCache,
+                geminiConfig, geminiScheduler, new ChunkPlanner(geminiConfig), new ColumnProfiler(meterRegistry),
+                meterRegistry);
+        @SuppressWarnings("unchecked")
+        Map<String, List<Map<String, Object>>> enhanced = (Map<String, List<Map<String, Object>>>) service.enhance(workbook).block();
+        return enhanced;
+    }
+
+    private static Map<String, List<Map<String, Object>>> workbook() {
+        Map<String, List<Map<String, Object>>> workbook = new LinkedHashMap<>();
+        for (String sheet : List.of("Customers", "Suppliers")) {
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("Name", sheet + " " + i);
+                row.put("Amount", i);
+                rows.add(row);
+            }
+            workbook.put(sheet, rows);
+        }
+        return workbook;
+    }
+
+    private static List<Map<String, Object>> upperCased(List<Map<String, Object>> rows) {
+        List<Map<String, Object>> upperCased = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            Map<String, Object> copy = new LinkedHashMap<>(row);
+            copy.put("Name", row.get("Name").toString().toUpperCase());
+            upperCased.add(copy);
+        }
+        return upperCased;
+    }
+
+    /** Answers every chunk with its own rows upper-cased, then passed through {@code model}. */
+    private final class FakeGeminiClient extends GeminiStreamClient {
+
+        private final UnaryOperator<List<Map<String, Object>>> model;
+
+        FakeGeminiClient(UnaryOperator<List<Map<String, Object>>> model) {
+            super(null, geminiConfig, geminiScheduler, meterRegistry);
+            this.model = model;
+        }
+
+        @Override
+        public Flux<Map<String, Object>> streamRows(Map<String, Object> requestBody, String sheetName,
+                                                    GeminiScheduler.Priority priority, long estimatedTokens) {
+            return Mono.fromCallable(() -> objectMapper.readValue(chunkJson(requestBody), CHUNK_TYPE).get(sheetName))
+                    .flatMapIterable(sent -> {
+                        List<Map<String, Object>> answer = new ArrayList<>();
+                        for (Map<String, Object> row : sent) {
+                            Map<String, Object> cleaned = new LinkedHashMap<>(row);
+                            cleaned.computeIfPresent("Name", (column, value) -> value.toString().toUpperCase());
+                            answer.add(cleaned);
+                        }
+                        return model.apply(answer);
+                    });
+        }
+
+        @SuppressWarnings("unchecked")
+        private static String chunkJson(Map<String, Object> requestBody) {
+            Map<String, Object> content = ((List<Map<String, Object>>) requestBody.get("contents")).getFirst();
+            String prompt = (String) ((List<Map<String, Object>>) content.get("parts")).getFirst().get("text");
+            return prompt.substring(prompt.indexOf("Input:") + "Input:".length());
+        }
+    }
+}
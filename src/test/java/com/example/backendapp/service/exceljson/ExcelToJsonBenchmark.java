@@ -0,0 +1,73 @@
+package com.example.backendapp.service.exceljson;
+
+import com.example.backendapp.benchmark.BenchmarkData;
+import com.example.backendapp.model.FormulaMode;
+import org.apache.poi.ss.usermodel.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of reading a generated workbook into rows: {@link RawExcelToJsonService#processSheet}
+ * over every sheet, and {@link RawExcelToJsonService#getCellValue} over every cell on its
+ * own. Formula cells use the results cached in the file, as uploads are read. One
+ * operation is one pass over the whole workbook.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ExcelToJsonBenchmark {
+
+    @Param({"1", "4"})
+    public int sheets;
+
+    @Param({"5000"})
+    public int rows;
+
+    @Param({"10", "40"})
+    public int columns;
+
+    @Param({"0.0", "0.25"})
+    public double formulaDensity;
+
+    @Param({"0.2", "0.8"})
+    public double numericShare;
+
+    private final RawExcelToJsonService service = new RawExcelToJsonService();
+    private Workbook workbook;
+    private FormulaEvaluator evaluator;
+
+    @Setup(Level.Trial)
+    public void createWorkbook() {
+        workbook = BenchmarkData.workbook(sheets, rows, columns, formulaDensity, numericShare);
+        evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeWorkbook() throws IOException {
+        workbook.close();
+    }
+
+    @Benchmark
+    public void processSheet(Blackhole bh) {
+        for (Sheet sheet : workbook) {
+            bh.consume(service.processSheet(sheet, evaluator, FormulaMode.CACHED));
+        }
+    }
+
+    @Benchmark
+    public void getCellValue(Blackhole bh) {
+        for (Sheet sheet : workbook) {
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    bh.consume(service.getCellValue(cell, evaluator, FormulaMode.CACHED));
+                }
+            }
+        }
+    }
+}
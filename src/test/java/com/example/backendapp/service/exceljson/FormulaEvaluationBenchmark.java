@@ -0,0 +1,81 @@
+package com.example.backendapp.service.exceljson;
+
+import com.example.backendapp.model.FormulaMode;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the three ways of resolving formula cells on a sheet with
+ * {@code rows * 3} formulas: a fresh evaluator per cell (the old behaviour), one
+ * evaluator shared by the sheet, and the results cached in the file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class FormulaEvaluationBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    private final RawExcelToJsonService service = new RawExcelToJsonService();
+    private Workbook workbook;
+    private Sheet sheet;
+
+    @Setup(Level.Trial)
+    public void createWorkbook() {
+        workbook = new XSSFWorkbook();
+        sheet = workbook.createSheet("Formulas");
+
+        Row header = sheet.createRow(0);
+        String[] headers = {"Price", "Qty", "Total", "Rounded", "Band"};
+        for (int i = 0; i < headers.length; i++) {
+            header.createCell(i).setCellValue(headers[i]);
+        }
+
+        for (int r = 1; r <= rows; r++) {
+            int excelRow = r + 1;
+            Row row = sheet.createRow(r);
+            row.createCell(0).setCellValue(r * 1.25);
+            row.createCell(1).setCellValue(r % 17);
+            row.createCell(2).setCellFormula("A" + excelRow + "*B" + excelRow);
+            row.createCell(3).setCellFormula("ROUND(C" + excelRow + "/3,2)");
+            row.createCell(4).setCellFormula("IF(C" + excelRow + ">100,\"high\",\"low\")");
+        }
+
+        workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeWorkbook() throws IOException {
+        workbook.close();
+    }
+
+    @Benchmark
+    public void evaluatorPerCell(Blackhole bh) {
+        for (Row row : sheet) {
+            for (Cell cell : row) {
+                bh.consume(service.getCellValue(cell));
+            }
+        }
+    }
+
+    @Benchmark
+    public Object sharedEvaluator() {
+        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        return service.processSheet(sheet, evaluator, FormulaMode.EVALUATE);
+    }
+
+    @Benchmark
+    public Object cachedResults() {
+        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        return service.processSheet(sheet, evaluator, FormulaMode.CACHED);
+    }
+}
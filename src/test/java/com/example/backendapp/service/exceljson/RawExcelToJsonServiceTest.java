@@ -0,0 +1,143 @@
+package com.example.backendapp.service.exceljson;
+
+import com.example.backendapp.model.FormulaMode;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The streaming .xlsx reader against the in-memory workbook evaluating every formula,
+ * which is how Excel-to-JSON has always read files.
+ */
+class RawExcelToJsonServiceTest {
+
+    private final RawExcelToJsonService service = new RawExcelToJsonService();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Path file;
+
+    @AfterEach
+    void deleteFile() throws Exception {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void streamingReaderMatchesEvaluatedWorkbook() throws Exception {
+        file = write(workbook(), true);
+
+        String evaluated = service.convertAsync(file, FormulaMode.EVALUATE).block();
+        assertEquals(evaluated, service.convertAsync(file, FormulaMode.CACHED).block());
+        assertEquals(evaluated, streamed(FormulaMode.CACHED));
+    }
+
+    @Test
+    void formulasWithoutCachedResultsAreEvaluated() throws Exception {
+        file = write(workbook(), false);
+
+        String evaluated = service.convertAsync(file, FormulaMode.EVALUATE).block();
+        assertEquals(evaluated, service.convertAsync(file, FormulaMode.CACHED).block());
+        assertEquals(evaluated, streamed(FormulaMode.CACHED));
+
+        Map<String, List<Map<String, Object>>> sheets = objectMapper.readValue(evaluated, new TypeReference<>() {});
+        // Data is read from the second row on, which here is the header row itself.
+        Map<String, Object> firstRow = sheets.get("Data").get(1);
+        assertEquals(6, firstRow.get("Double"));
+        assertEquals("row2x", firstRow.get("Label"));
+        assertEquals("#ERROR_#DIV/0!", sheets.get("Data").get(6).get("Label"));
+        assertEquals(true, sheets.get("Single").get(0).get("Value"));
+    }
+
+    @Test
+    void cachedModeOnTheWorkbookEvaluatesFormulasWithoutCachedResults() throws Exception {
+        file = write(workbook(), false);
+
+        try (Workbook workbook = WorkbookFactory.create(file.toFile())) {
+            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+            for (Sheet sheet : workbook) {
+                assertEquals(service.processSheet(sheet, evaluator, FormulaMode.EVALUATE),
+                        service.processSheet(sheet, evaluator, FormulaMode.CACHED));
+            }
+        }
+    }
+
+    private String streamed(FormulaMode formulaMode) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.writeJson(file, formulaMode, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    // Headers on the second row, dates, booleans, formulas of every result type, a blank
+    // trailing row, an empty sheet and a sheet with a single column.
+    private static Workbook workbook() {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        CellStyle dateStyle = workbook.createCellStyle();
+        dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+
+        Sheet data = workbook.createSheet("Data");
+        Row header = data.createRow(1);
+        String[] headers = {"Name", "Amount", "When", "Double", "Flag", "Label"};
+        for (int i = 0; i < headers.length; i++) {
+            header.createCell(i).setCellValue(headers[i]);
+        }
+        for (int i = 2; i < 30; i++) {
+            Row row = data.createRow(i);
+            row.createCell(0).setCellValue("row" + i);
+            row.createCell(1).setCellValue(i * 1.5);
+            Cell when = row.createCell(2);
+            when.setCellValue(new Date(1_700_000_000_000L + i * 86_400_000L));
+            when.setCellStyle(dateStyle);
+            row.createCell(3).setCellFormula("B" + (i + 1) + "*2");
+            row.createCell(4).setCellValue(i % 2 == 0);
+            Cell label = row.createCell(5);
+            if (i % 7 == 0) {
+                label.setCellFormula("1/0");
+            } else if (i % 5 == 0) {
+                label.setCellFormula("C" + (i + 1));
+                label.setCellStyle(dateStyle);
+            } else {
+                label.setCellFormula("A" + (i + 1) + "&\"x\"");
+            }
+        }
+        data.createRow(40);
+
+        workbook.createSheet("Empty");
+        Sheet single = workbook.createSheet("Single");
+        single.createRow(0).createCell(0).setCellValue("Value");
+        single.createRow(1).createCell(0).setCellFormula("1=1");
+        return workbook;
+    }
+
+    private static Path write(Workbook workbook, boolean storeFormulaResults) throws Exception {
+        try (workbook) {
+            if (storeFormulaResults) {
+                workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            }
+            Path path = Files.createTempFile("formulas-", ".xlsx");
+            try (OutputStream out = Files.newOutputStream(path)) {
+                workbook.write(out);
+            }
+            return path;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.backendapp.service.gemini;
+
+import com.example.backendapp.config.GeminiConfig;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Packing of rows into chunks and putting the model's answers back together, with the
+ * chunk JSON itself standing in for a model that changed nothing.
+ */
+class ChunkPlannerTest {
+
+    private static final long TARGET_TOKENS = 200;
+    private static final String SHEET = "Bob's \"sheet\"";
+    private static final TypeReference<Map<String, List<Map<String, Object>>>> CHUNK_TYPE = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ChunkPlanner planner;
+
+    ChunkPlannerTest() {
+        GeminiConfig geminiConfig = new GeminiConfig();
+        geminiConfig.setChunkTargetTokens(TARGET_TOKENS);
+        planner = new ChunkPlanner(geminiConfig);
+    }
+
+    @Test
+    void chunksStayWithinTheTargetAndCoverEveryRowInOrder() throws Exception {
+        List<Map<String, Object>> rows = rows(100);
+        rows.set(40, wideRow(40));
+
+        List<ChunkPlanner.Chunk> chunks = planner.plan(SHEET, rows);
+
+        int nextRow = 0;
+        for (ChunkPlanner.Chunk chunk : chunks) {
+            assertTrue(chunk.estimatedTokens() <= TARGET_TOKENS, "chunk " + chunk.index() + ": " + chunk.estimatedTokens());
+            assertEquals(chunk.continuesRow() ? nextRow - 1 : nextRow, chunk.firstRow());
+            List<Map<String, Object>> sent = answer(chunk);
+            for (int i = 0; i < sent.size(); i++) {
+                assertEquals(chunk.firstRow() + i, sent.get(i).get(ChunkPlanner.ROW_KEY));
+            }
+            nextRow = chunk.firstRow() + chunk.rowCount();
+        }
+        assertEquals(rows.size(), nextRow);
+        assertTrue(chunks.stream().filter(ChunkPlanner.Chunk::continuesRow).count() > 1);
+    }
+
+    @Test
+    void mergingTheChunksGivesBackTheRows() throws Exception {
+        List<Map<String, Object>> rows = rows(60);
+        rows.set(0, wideRow(0));
+        rows.set(30, wideRow(30));
+        rows.get(10).put(ChunkPlanner.ROW_KEY, "a column of the same name");
+
+        Map<Integer, Map<String, Object>> merged = new HashMap<>();
+        for (ChunkPlanner.Chunk chunk : planner.plan(SHEET, rows)) {
+            ChunkPlanner.mergeInto(merged, chunk, answer(chunk));
+        }
+
+        rows.get(10).remove(ChunkPlanner.ROW_KEY);
+        assertEquals(rows.size(), merged.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(rows.get(i), merged.get(i), "row " + i);
+        }
+    }
+
+    @Test
+    void rowsAreMergedByTheirIndexNotTheirPosition() throws Exception {
+        List<Map<String, Object>> rows = rows(60);
+        rows.set(30, wideRow(30));
+
+        Map<Integer, Map<String, Object>> merged = new HashMap<>();
+        for (ChunkPlanner.Chunk chunk : planner.plan(SHEET, rows)) {
+            List<Map<String, Object>> answer = answer(chunk);
+            if (chunk.firstRow() == 30 && chunk.continuesRow()) {
+                // A part of the wide row the model left out.
+                answer.clear();
+            } else if (!chunk.continuesRow() && chunk.rowCount() > 2) {
+                // A dropped row, a row the model made up, a row of another chunk and an index sent back as text.
+                answer.remove(1);
+                answer.add(Map.of("Name", "made up"));
+                answer.add(Map.of(ChunkPlanner.ROW_KEY, chunk.firstRow() + chunk.rowCount(), "Name", "elsewhere"));
+                answer.getFirst().put(ChunkPlanner.ROW_KEY, String.valueOf(chunk.firstRow()));
+            }
+            ChunkPlanner.mergeInto(merged, chunk, answer);
+        }
+
+        for (Map.Entry<Integer, Map<String, Object>> row : merged.entrySet()) {
+            if (row.getKey() != 30) {
+                assertEquals(rows.get(row.getKey()), row.getValue(), "row " + row.getKey());
+            }
+        }
+        assertFalse(merged.containsKey(1));
+        Map<String, Object> wide = merged.get(30);
+        assertEquals(30, wide.get("Name"));
+        assertTrue(rows.get(30).entrySet().containsAll(wide.entrySet()));
+        assertTrue(wide.size() < rows.get(30).size());
+    }
+
+    private List<Map<String, Object>> answer(ChunkPlanner.Chunk chunk) throws Exception {
+        Map<String, List<Map<String, Object>>> sent = objectMapper.readValue(chunk.json(), CHUNK_TYPE);
+        assertEquals(List.of(SHEET), List.copyOf(sent.keySet()));
+        return sent.get(SHEET);
+    }
+
+    private static List<Map<String, Object>> rows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("Name", "Customer " + i);
+            row.put("Amount", i * 3);
+            row.put("Region", List.of("North", "South").get(i % 2));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Map<String, Object> wideRow(int index) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("Name", index);
+        for (int column = 0; column < 80; column++) {
+            row.put("Column " + column, "value " + column);
+        }
+        return row;
+    }
+}
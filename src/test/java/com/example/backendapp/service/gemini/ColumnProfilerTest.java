@@ -0,0 +1,105 @@
+package com.example.backendapp.service.gemini;
+
+import com.example.backendapp.model.FormulaMode;
+import com.example.backendapp.service.exceljson.RawExcelToJsonService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Column kinds and dirty cells, including for values as the Excel to JSON readers
+ * actually write them.
+ */
+class ColumnProfilerTest {
+
+    private final ColumnProfiler profiler = new ColumnProfiler(new SimpleMeterRegistry());
+    private Path file;
+
+    @AfterEach
+    void deleteFile() throws Exception {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void valuesOfTheColumnsKindAreClean() {
+        List<Map<String, Object>> rows = List.of(
+                Map.of("Date", "2024-01-05", "Amount", 12, "Seen", "2024-01-05T10:15", "Note", "free text"),
+                Map.of("Date", "2024-02-05", "Amount", 7.5, "Seen", "2024-01-05T10:15:30", "Note", "more text"),
+                Map.of("Date", "5 March 2024", "Amount", "n/a", "Seen", "2024-01-05T10:15:30Z", "Note", ""));
+
+        ColumnProfiler.SheetProjection projection = profiler.project("Sheet1", rows);
+
+        assertEquals(ColumnProfiler.Kind.DATETIME, profile(projection, "Seen").kind());
+        assertTrue(profile(projection, "Seen").isClean());
+        assertEquals(1, profile(projection, "Date").dirtyCells());
+        assertEquals(1, profile(projection, "Amount").dirtyCells());
+        assertEquals(2, profile(projection, "Note").dirtyCells());
+        assertArrayEquals(new int[] {0, 1, 2}, projection.dirtyRows());
+        assertEquals(Map.of("Date", "2024-01-05", "Amount", 12, "Note", "free text"), projection.projectedRows().get(0));
+        assertEquals(Map.of("Date", "5 March 2024", "Amount", "n/a", "Note", ""), projection.projectedRows().get(2));
+    }
+
+    @ParameterizedTest
+    @EnumSource(FormulaMode.class)
+    void dateCellsReadFromAWorkbookAreNotSentForCleaning(FormulaMode formulaMode) throws Exception {
+        file = workbookWithDates();
+        String json = new RawExcelToJsonService().convertAsync(file, formulaMode).block();
+        List<Map<String, Object>> rows = new ObjectMapper()
+                .readValue(json, new TypeReference<Map<String, List<Map<String, Object>>>>() {})
+                .get("Dates");
+        assertEquals("2024-01-05T00:00", rows.get(0).get("Date"));
+        assertEquals("2024-01-24T09:00:30", rows.get(19).get("Date"));
+
+        ColumnProfiler.SheetProjection projection = profiler.project("Dates", rows);
+
+        assertEquals(ColumnProfiler.Kind.DATETIME, profile(projection, "Date").kind());
+        assertTrue(profile(projection, "Date").isClean());
+        assertEquals(0, projection.dirtyRows().length);
+    }
+
+    private static ColumnProfiler.ColumnProfile profile(ColumnProfiler.SheetProjection projection, String column) {
+        return projection.columns().stream()
+                .filter(profile -> profile.name().equals(column))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static Path workbookWithDates() throws Exception {
+        Path path = Files.createTempFile("dates-", ".xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(path)) {
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+            Sheet sheet = workbook.createSheet("Dates");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Date");
+            header.createCell(1).setCellValue("Amount");
+            for (int i = 1; i <= 20; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(LocalDateTime.of(2024, 1, 4 + i, i == 20 ? 9 : 0, 0, i == 20 ? 30 : 0));
+                row.getCell(0).setCellStyle(dateStyle);
+                row.createCell(1).setCellValue(i * 10);
+            }
+            workbook.write(out);
+        }
+        return path;
+    }
+}
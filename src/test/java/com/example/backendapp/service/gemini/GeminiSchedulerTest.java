@@ -0,0 +1,174 @@
+package com.example.backendapp.service.gemini;
+
+import com.example.backendapp.config.GeminiConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the scheduler against a local fake Gemini server that can throttle, fail and
+ * hold calls, and records the order in which calls reach it.
+ */
+class GeminiSchedulerTest {
+
+    private static final String ANSWER = "{\"candidates\":[]}";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final GeminiConfig geminiConfig = new GeminiConfig();
+    private final AtomicInteger received = new AtomicInteger();
+    private final AtomicInteger throttleFirst = new AtomicInteger();
+    private final ConcurrentLinkedQueue<String> arrivals = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private HttpServer server;
+    private WebClient webClient;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/generate", exchange -> {
+            received.incrementAndGet();
+            if (throttleFirst.getAndDecrement() > 0) {
+                respond(exchange, 429, "{\"error\":{\"status\":\"RESOURCE_EXHAUSTED\"}}");
+            } else {
+                respond(exchange, 200, ANSWER);
+            }
+        });
+        server.createContext("/unavailable", exchange -> {
+            received.incrementAndGet();
+            respond(exchange, 503, "{\"error\":{\"status\":\"UNAVAILABLE\"}}");
+        });
+        server.createContext("/held", exchange -> {
+            arrivals.add(exchange.getRequestURI().getQuery());
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, ANSWER);
+        });
+        server.start();
+        webClient = WebClient.create("http://localhost:" + server.getAddress().getPort());
+
+        geminiConfig.setMaxInFlight(8);
+        geminiConfig.getScheduler().setInitialBackoff(Duration.ofMillis(10));
+        geminiConfig.getScheduler().setMaxBackoff(Duration.ofMillis(50));
+    }
+
+    @AfterEach
+    void stopServer() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void throttledCallsAreRetriedAndLowerTheLimit() {
+        throttleFirst.set(2);
+        GeminiScheduler scheduler = new GeminiScheduler(geminiConfig, meterRegistry);
+
+        String answer = scheduler.schedule(post("/generate"), GeminiScheduler.Priority.INTERACTIVE, 100)
+                .block(Duration.ofSeconds(5));
+
+        assertEquals(ANSWER, answer);
+        assertEquals(3, received.get());
+        assertEquals(2, meterRegistry.counter("gemini.calls.retries").count());
+        assertEquals(2, meterRegistry.counter("gemini.calls.throttled").count());
+        assertTrue(scheduler.getLimit() <= 4, "limit was " + scheduler.getLimit());
+        assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() {
+        geminiConfig.getScheduler().setMaxRetries(2);
+        GeminiScheduler scheduler = new GeminiScheduler(geminiConfig, meterRegistry);
+
+        WebClientResponseException error = assertThrows(WebClientResponseException.class, () ->
+                scheduler.schedule(post("/unavailable"), GeminiScheduler.Priority.BATCH, 100)
+                        .block(Duration.ofSeconds(5)));
+
+        assertEquals(503, error.getStatusCode().value());
+        assertEquals(3, received.get());
+        assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    void interactiveCallsOvertakeQueuedBatchCalls() throws Exception {
+        geminiConfig.setMaxInFlight(1);
+        GeminiScheduler scheduler = new GeminiScheduler(geminiConfig, meterRegistry);
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        calls.add(scheduler.schedule(post("/held?batch-0"), GeminiScheduler.Priority.BATCH, 100).toFuture());
+        awaitCondition(() -> arrivals.size() == 1);
+        for (int i = 1; i <= 3; i++) {
+            calls.add(scheduler.schedule(post("/held?batch-" + i), GeminiScheduler.Priority.BATCH, 100).toFuture());
+        }
+        calls.add(scheduler.schedule(post("/held?interactive"), GeminiScheduler.Priority.INTERACTIVE, 100).toFuture());
+        awaitCondition(() -> scheduler.getQueued() == 4);
+
+        release.countDown();
+        for (CompletableFuture<String> call : calls) {
+            assertEquals(ANSWER, call.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("batch-0", "interactive", "batch-1", "batch-2", "batch-3"), List.copyOf(arrivals));
+    }
+
+    @Test
+    void callsWaitForTheTokenBudgetUntilCancelled() throws Exception {
+        // About 1000 tokens a second: the second call would wait 20 seconds for its share.
+        geminiConfig.getScheduler().setTokensPerMinute(60_000);
+        GeminiScheduler scheduler = new GeminiScheduler(geminiConfig, meterRegistry);
+
+        scheduler.schedule(post("/generate"), GeminiScheduler.Priority.INTERACTIVE, 40_000).block(Duration.ofSeconds(5));
+        CompletableFuture<String> waiting = scheduler.schedule(post("/generate"), GeminiScheduler.Priority.INTERACTIVE, 40_000)
+                .toFuture();
+        awaitCondition(() -> scheduler.getQueued() == 1);
+        Thread.sleep(200);
+
+        assertEquals(1, received.get());
+        assertEquals(0, scheduler.getInFlight());
+        waiting.cancel(true);
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    private Mono<String> post(String uri) {
+        return webClient.post().uri(uri).retrieve().bodyToMono(String.class);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static void awaitCondition(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not reached in time");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.backendapp.service.jsonexcel;
+
+import com.example.backendapp.benchmark.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link RawJsonToExcelService#prepareSingleCellValue}, per cell, over a
+ * mix of numbers, ISO dates and date-times, percent strings, booleans and free text.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CellPreparationBenchmark {
+
+    private static final int CELLS = 10_000;
+
+    @Param({"0.2", "0.8"})
+    public double numericShare;
+
+    private final RawJsonToExcelService service = new RawJsonToExcelService();
+    private List<Map.Entry<String, Object>> cells;
+
+    @Setup(Level.Trial)
+    public void createCells() {
+        cells = BenchmarkData.cells(CELLS, numericShare);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CELLS)
+    public void prepareSingleCellValue(Blackhole bh) {
+        for (Map.Entry<String, Object> cell : cells) {
+            bh.consume(service.prepareSingleCellValue(cell.getValue(), cell.getKey()));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.backendapp.service.jsonexcel;
+
+import com.example.backendapp.benchmark.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link RawJsonToExcelService#generateExcel} on generated documents; one
+ * operation is one whole workbook. Cell preparation on its own is measured by
+ * {@link CellPreparationBenchmark}, and writing one very large sheet by
+ * {@link JsonToExcelWriterBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class JsonToExcelBenchmark {
+
+    @Param({"1", "4"})
+    public int sheets;
+
+    @Param({"5000"})
+    public int rows;
+
+    @Param({"10", "40"})
+    public int columns;
+
+    @Param({"0.2", "0.8"})
+    public double numericShare;
+
+    private final RawJsonToExcelService service = new RawJsonToExcelService();
+    private Map<String, List<Map<String, Object>>> data;
+
+    @Setup(Level.Trial)
+    public void createData() {
+        data = BenchmarkData.json(sheets, rows, columns, numericShare);
+    }
+
+    @Benchmark
+    public byte[] generateExcel() {
+        return service.generateExcel(data).block();
+    }
+}
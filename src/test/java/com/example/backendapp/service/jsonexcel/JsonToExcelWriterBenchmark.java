@@ -0,0 +1,48 @@
+package com.example.backendapp.service.jsonexcel;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link RawJsonToExcelService#generateExcel} on one sheet of {@code rows} rows
+ * mixing plain strings, ISO dates, percent strings and numbers under a percent-like
+ * header, so every branch of the cell preparation runs. Rows/sec is
+ * {@code rows / score}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class JsonToExcelWriterBenchmark {
+
+    @Param({"1000000"})
+    public int rows;
+
+    private final RawJsonToExcelService service = new RawJsonToExcelService();
+    private Map<String, List<Map<String, Object>>> data;
+
+    @Setup(Level.Trial)
+    public void createData() {
+        List<Map<String, Object>> sheetRows = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("Id", i);
+            row.put("Name", "Customer " + i);
+            row.put("Joined", String.format("20%02d-%02d-%02d", i % 25, i % 12 + 1, i % 28 + 1));
+            row.put("Growth", (i % 100) + "%");
+            row.put("Discount rate", i % 40);
+            row.put("Active", i % 3 == 0);
+            sheetRows.add(row);
+        }
+        data = Map.of("Customers", sheetRows);
+    }
+
+    @Benchmark
+    public byte[] generateExcel() {
+        return service.generateExcel(data).block();
+    }
+}
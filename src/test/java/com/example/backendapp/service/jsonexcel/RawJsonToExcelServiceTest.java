@@ -0,0 +1,62 @@
+package com.example.backendapp.service.jsonexcel;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sheet names in the streaming JSON-to-Excel writer, which Excel restricts in length and
+ * characters while JSON keys are free-form.
+ */
+class RawJsonToExcelServiceTest {
+
+    private static final String LONG_NAME = "Quarterly revenue by region and product";
+
+    private final RawJsonToExcelService service = new RawJsonToExcelService();
+    private Path file;
+
+    @AfterEach
+    void deleteFile() throws Exception {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(JsonRowReader.Layout.class)
+    void rowsOfASheetWhoseNameIsNotSafeStayOnOneSheet(JsonRowReader.Layout layout) throws Exception {
+        file = json("{\"Sales/2024\":[{\"a\":1},{\"a\":2},{\"a\":3}],"
+                + "\"" + LONG_NAME + "\":[{\"b\":1},{\"b\":2}]}");
+
+        try (Workbook workbook = write(layout)) {
+            assertEquals(2, workbook.getNumberOfSheets());
+            assertEquals("Sales 2024", workbook.getSheetAt(0).getSheetName());
+            assertEquals(LONG_NAME.substring(0, 31), workbook.getSheetAt(1).getSheetName());
+            // Row 0 holds the headers.
+            assertEquals(3, workbook.getSheetAt(0).getLastRowNum());
+            assertEquals(2, workbook.getSheetAt(1).getLastRowNum());
+        }
+    }
+
+    private Workbook write(JsonRowReader.Layout layout) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.writeExcel(file, layout, out);
+        return new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static Path json(String content) throws Exception {
+        Path path = Files.createTempFile("sheets-", ".json");
+        Files.writeString(path, content, StandardCharsets.UTF_8);
+        return path;
+    }
+}
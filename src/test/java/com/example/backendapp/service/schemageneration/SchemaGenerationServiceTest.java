@@ -0,0 +1,25 @@
+package com.example.backendapp.service.schemageneration;
+
+import com.example.backendapp.exception.InvalidInputException;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Uploads are read whole into memory here, so they keep the 10 MB limit even though
+ * the multipart limit is higher for streamed JSON uploads.
+ */
+class SchemaGenerationServiceTest {
+
+    private static final String XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    @Test
+    void uploadsOverTenMegabytesAreRejectedBeforeBeingRead() {
+        SchemaGenerationService service = new SchemaGenerationService(null, null, null, null, null);
+        MockMultipartFile file = new MockMultipartFile("file", "large.xlsx", XLSX, new byte[10 * 1024 * 1024 + 1]);
+
+        InvalidInputException e = assertThrows(InvalidInputException.class, () -> service.generate(file).block());
+        assertEquals("File is too large. Max allowed is 10 MB.", e.getMessage());
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.backendapp.util;
+
+import com.example.backendapp.benchmark.BenchmarkData;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link CacheKeyUtil} key generation: the per-chunk AI key over chunks of
+ * {@code chunkRows} rows, the schema key over a three-row preview, and the
+ * Excel-to-JSON key from an upload's content hash.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CacheKeyBenchmark {
+
+    private static final String CONTENT_SHA256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Param({"10", "200"})
+    public int chunkRows;
+
+    private String chunkJson;
+    private Map<String, List<Map<String, Object>>> preview;
+
+    @Setup(Level.Trial)
+    public void createData() throws JsonProcessingException {
+        chunkJson = new ObjectMapper().writeValueAsString(BenchmarkData.json(1, chunkRows, 10, 0.5));
+        preview = BenchmarkData.json(2, 3, 10, 0.5);
+    }
+
+    @Benchmark
+    public String aiChunkKey() {
+        return CacheKeyUtil.generateAiChunkKey("Sheet1", chunkJson, "1", "gemini-2.0-flash");
+    }
+
+    @Benchmark
+    public String schemaKey() {
+        return CacheKeyUtil.generateSchemaKey(preview);
+    }
+
+    @Benchmark
+    public String excelJsonKey() {
+        return CacheKeyUtil.generateExcelJsonKey(CONTENT_SHA256, true, "CACHED");
+    }
+}
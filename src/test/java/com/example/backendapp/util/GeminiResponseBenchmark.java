@@ -0,0 +1,53 @@
+package com.example.backendapp.util;
+
+import com.example.backendapp.benchmark.BenchmarkData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link GeminiResponseUtil#extractTextFromGeminiResponse} on answers
+ * carrying {@code answerRows} rows of cleaned JSON, fenced the way Gemini usually writes
+ * it, and of {@link GeminiResponseUtil#extractTextFromStreamEvent} on one streamed event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class GeminiResponseBenchmark {
+
+    @Param({"10", "200"})
+    public int answerRows;
+
+    private String response;
+    private String streamEvent;
+
+    @Setup(Level.Trial)
+    public void createResponses() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        String answer = "```json\n" + objectMapper.writeValueAsString(BenchmarkData.json(1, answerRows, 10, 0.5)) + "\n```";
+        response = objectMapper.writeValueAsString(candidate(answer));
+        streamEvent = objectMapper.writeValueAsString(candidate(answer.substring(0, Math.min(answer.length(), 200))));
+    }
+
+    @Benchmark
+    public String extractTextFromGeminiResponse() {
+        return GeminiResponseUtil.extractTextFromGeminiResponse(response);
+    }
+
+    @Benchmark
+    public String extractTextFromStreamEvent() {
+        return GeminiResponseUtil.extractTextFromStreamEvent(streamEvent);
+    }
+
+    private static Map<String, Object> candidate(String text) {
+        return Map.of("candidates", List.of(Map.of(
+                "content", Map.of("role", "model", "parts", List.of(Map.of("text", text))),
+                "finishReason", "STOP")));
+    }
+}